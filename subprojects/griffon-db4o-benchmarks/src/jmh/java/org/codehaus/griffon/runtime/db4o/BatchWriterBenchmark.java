@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Measures writes per second from concurrent threads when every write commits on its own versus
+ * when writes go through an {@code ObjectContainerBatch} group commit.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Threads(8)
+@Fork(1)
+public class BatchWriterBenchmark {
+    @Param({"0", "5"})
+    public int batchWindow;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private File dbfile;
+    private ObjectContainer objectContainer;
+    private ObjectContainerBatch batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = File.createTempFile("batch-writer-", ".yarv");
+        dbfile.delete();
+        objectContainer = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), dbfile.getAbsolutePath());
+        batch = new ObjectContainerBatch("benchmark", singletonMap("batch_window", (Object) batchWindow),
+            callback -> callback.handle("benchmark", objectContainer));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        batch.close();
+        objectContainer.close();
+        dbfile.delete();
+    }
+
+    @Benchmark
+    public void commitPerWrite(Session session) {
+        session.objectContainer.store(newItem());
+        session.objectContainer.commit();
+    }
+
+    @Benchmark
+    public void groupCommit() {
+        batch.submit(newItem(), false).join();
+    }
+
+    private Item newItem() {
+        int value = sequence.incrementAndGet();
+        return new Item("key-" + value, value, null);
+    }
+
+    /**
+     * Gives each benchmark thread its own transaction.
+     */
+    @State(Scope.Thread)
+    public static class Session {
+        private ObjectContainer objectContainer;
+
+        @Setup(Level.Trial)
+        public void setup(BatchWriterBenchmark benchmark) {
+            objectContainer = benchmark.objectContainer.ext().openSession();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            objectContainer.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import griffon.core.Configuration;
+import griffon.core.GriffonApplication;
+import griffon.core.event.EventRouter;
+import griffon.core.injection.Injector;
+import org.codehaus.griffon.runtime.core.configuration.AbstractMapConfiguration;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Wires the plugin's runtime classes without starting an application. Events go nowhere and no
+ * {@code Db4oBootstrap} is registered, thus benchmarks measure the plugin and db4o alone.
+ *
+ * @author Andres Almiray
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return a fresh, not yet existing, temporary {@code .yarv} file
+     */
+    @Nonnull
+    static File newDatabaseFile(@Nonnull String prefix) throws IOException {
+        File dbfile = File.createTempFile(prefix, ".yarv");
+        dbfile.delete();
+        return dbfile;
+    }
+
+    @Nonnull
+    static Map<String, Object> dataSource(@Nonnull File dbfile) {
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("name", dbfile.getAbsolutePath());
+        config.put("delete", true);
+        return config;
+    }
+
+    @Nonnull
+    static DefaultObjectContainerFactory newObjectContainerFactory(@Nonnull Map<String, Map<String, Object>> dataSources) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("dataSources", new LinkedHashMap<>(dataSources));
+        DefaultObjectContainerFactory factory = new DefaultObjectContainerFactory(newConfiguration(settings), newApplication());
+        inject(factory, "injector", stub(Injector.class));
+        return factory;
+    }
+
+    @Nonnull
+    static DefaultObjectContainerHandler newObjectContainerHandler(@Nonnull DefaultObjectContainerFactory factory) {
+        return new DefaultObjectContainerHandler(newConfiguration(Collections.<String, Object>emptyMap()), factory, new DefaultObjectContainerStorage(), new InMemoryDb4oMetrics(), new CallbackTrackers());
+    }
+
+    @Nonnull
+    private static Configuration newConfiguration(@Nonnull Map<String, Object> settings) {
+        return new AbstractMapConfiguration(settings) {
+        };
+    }
+
+    @Nonnull
+    private static GriffonApplication newApplication() {
+        EventRouter eventRouter = stub(EventRouter.class);
+        return type(GriffonApplication.class, (proxy, method, args) -> "getEventRouter".equals(method.getName()) ? eventRouter : defaultValue(proxy, method, args));
+    }
+
+    /**
+     * @return an instance whose methods do nothing and return empty collections, {@code false}, zero or {@code null}
+     */
+    @Nonnull
+    private static <T> T stub(@Nonnull Class<T> type) {
+        return type(type, BenchmarkSupport::defaultValue);
+    }
+
+    @Nonnull
+    private static <T> T type(@Nonnull Class<T> type, @Nonnull InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(BenchmarkSupport.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return method.getDeclaringClass().getSimpleName() + " stub";
+            default:
+                break;
+        }
+
+        Class<?> returnType = method.getReturnType();
+        if (Iterable.class.isAssignableFrom(returnType)) {
+            return Collections.emptyList();
+        } else if (returnType.isPrimitive() && returnType != void.class) {
+            return Array.get(Array.newInstance(returnType, 1), 0);
+        }
+        return null;
+    }
+
+    private static void inject(@Nonnull Object target, @Nonnull String fieldName, @Nonnull Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not inject " + fieldName + " into " + target.getClass().getName(), e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Measures opening and closing an existing database file through {@code DefaultObjectContainerFactory}, which
+ * applies the dataSource's settings and checks its declared indexes on every open.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContainerLifecycleBenchmark {
+    private static final String DATASOURCE = "benchmark";
+    private static final int COMMIT_INTERVAL = 10000;
+
+    @Param({"0", "100000"})
+    public int objectCount;
+
+    @Param({"file", "caching", "mapped"})
+    public String storage;
+
+    private File dbfile;
+    private DefaultObjectContainerFactory objectContainerFactory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = BenchmarkSupport.newDatabaseFile("container-lifecycle-");
+        Map<String, Object> config = BenchmarkSupport.dataSource(dbfile);
+        // the file has to survive every close but the last one
+        config.put("delete", false);
+        config.put("storage", storage);
+        config.put("indexes", singletonMap(Item.class.getName(), singletonList("key")));
+        objectContainerFactory = BenchmarkSupport.newObjectContainerFactory(singletonMap(DATASOURCE, config));
+
+        ObjectContainer objectContainer = objectContainerFactory.create(DATASOURCE);
+        for (int i = 0; i < objectCount; i++) {
+            objectContainer.store(new Item("key-" + i, i, null));
+            if (i % COMMIT_INTERVAL == 0) {
+                objectContainer.commit();
+                objectContainer.ext().purge();
+            }
+        }
+        objectContainerFactory.destroy(DATASOURCE, objectContainer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbfile.delete();
+    }
+
+    @Benchmark
+    public void openAndClose() {
+        ObjectContainer objectContainer = objectContainerFactory.create(DATASOURCE);
+        objectContainerFactory.destroy(DATASOURCE, objectContainer);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Measures readers and writers sharing a single container through {@code withDb4o}: six threads run indexed
+ * queries while two store and commit, either on the shared root container or each on its own session.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ContentionBenchmark {
+    private static final String DATASOURCE = "benchmark";
+    private static final int INITIAL_OBJECTS = 10000;
+
+    @Param({"false", "true"})
+    public boolean sessionMode;
+
+    private final AtomicInteger sequence = new AtomicInteger(INITIAL_OBJECTS);
+    private File dbfile;
+    private DefaultObjectContainerHandler objectContainerHandler;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = BenchmarkSupport.newDatabaseFile("contention-");
+        Map<String, Object> config = BenchmarkSupport.dataSource(dbfile);
+        config.put("session_mode", sessionMode);
+        config.put("indexes", singletonMap(Item.class.getName(), singletonList("key")));
+        objectContainerHandler = BenchmarkSupport.newObjectContainerHandler(BenchmarkSupport.newObjectContainerFactory(singletonMap(DATASOURCE, config)));
+
+        objectContainerHandler.withDb4o(DATASOURCE, (dataSourceName, objectContainer) -> {
+            for (int i = 0; i < INITIAL_OBJECTS; i++) {
+                objectContainer.store(new Item("key-" + i, i, null));
+            }
+            objectContainer.commit();
+            return null;
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        objectContainerHandler.closeDb4o(DATASOURCE);
+        dbfile.delete();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(6)
+    public int read() {
+        Integer size = objectContainerHandler.withDb4o(DATASOURCE, (dataSourceName, objectContainer) -> {
+            Query query = objectContainer.query();
+            query.constrain(Item.class);
+            query.descend("key").constrain("key-" + ThreadLocalRandom.current().nextInt(sequence.get()));
+            return query.execute().size();
+        });
+        return size != null ? size : 0;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void write() {
+        objectContainerHandler.withDb4o(DATASOURCE, (String dataSourceName, ObjectContainer objectContainer) -> {
+            int value = sequence.getAndIncrement();
+            objectContainer.store(new Item("key-" + value, value, null));
+            objectContainer.commit();
+            return null;
+        });
+    }
+}
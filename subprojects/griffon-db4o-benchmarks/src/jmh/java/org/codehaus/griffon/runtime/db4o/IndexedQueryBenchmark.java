@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.query.Query;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+
+/**
+ * Compares SODA query latency on a field with and without an index declared through the
+ * {@code indexes} dataSource setting.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexedQueryBenchmark {
+    private static final int COMMIT_INTERVAL = 10000;
+
+    @Param({"1000000"})
+    public int objectCount;
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private File dbfile;
+    private ObjectContainer objectContainer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = File.createTempFile("indexed-query-", ".yarv");
+        dbfile.delete();
+
+        Map<String, Object> config = new HashMap<>();
+        if (indexed) {
+            config.put("indexes", singletonMap(Item.class.getName(), singletonList("key")));
+        }
+
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+        EmbeddedConfigurationSupport.applyTo("benchmark", config, configuration);
+        objectContainer = Db4oEmbedded.openFile(configuration, dbfile.getAbsolutePath());
+
+        for (int i = 0; i < objectCount; i++) {
+            objectContainer.store(new Item("key-" + i, i, null));
+            if (i % COMMIT_INTERVAL == 0) {
+                objectContainer.commit();
+                objectContainer.ext().purge();
+            }
+        }
+        objectContainer.commit();
+        objectContainer.ext().purge();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        objectContainer.close();
+        dbfile.delete();
+    }
+
+    @Benchmark
+    public int queryByKey() {
+        Query query = objectContainer.query();
+        query.constrain(Item.class);
+        query.descend("key").constrain("key-" + ThreadLocalRandom.current().nextInt(objectCount));
+        return query.execute().size();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+/**
+ * Simple persistent type shared by all benchmarks.
+ *
+ * @author Andres Almiray
+ */
+public class Item {
+    private String key;
+    private int value;
+    private String payload;
+
+    public Item() {
+    }
+
+    public Item(String key, int value, String payload) {
+        this.key = key;
+        this.value = value;
+        this.payload = payload;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.ObjectSet;
+import com.db4o.config.EmbeddedConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Compares the {@code file} and {@code mapped} storages on random reads by ID, full extent scans and
+ * small commits. Every read purges the object from the reference cache so it's fetched from the storage.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StorageBenchmark {
+    private static final int COMMIT_INTERVAL = 10000;
+    private static final String PAYLOAD = new String(new char[256]).replace('\0', 'x');
+
+    @Param({"200000"})
+    public int objectCount;
+
+    @Param({"file", "mapped"})
+    public String storage;
+
+    private File dbfile;
+    private ObjectContainer objectContainer;
+    private long[] ids;
+    private int sequence;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = File.createTempFile("storage-", ".yarv");
+        dbfile.delete();
+
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+        EmbeddedConfigurationSupport.applyTo("benchmark", singletonMap("storage", (Object) storage), configuration);
+        objectContainer = Db4oEmbedded.openFile(configuration, dbfile.getAbsolutePath());
+
+        ids = new long[objectCount];
+        for (int i = 0; i < objectCount; i++) {
+            Item item = new Item("key-" + i, i, PAYLOAD);
+            objectContainer.store(item);
+            ids[i] = objectContainer.ext().getID(item);
+            if (i % COMMIT_INTERVAL == 0) {
+                objectContainer.commit();
+                objectContainer.ext().purge();
+            }
+        }
+        objectContainer.commit();
+        objectContainer.ext().purge();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        objectContainer.close();
+        dbfile.delete();
+    }
+
+    @Benchmark
+    public int randomRead() {
+        Item item = objectContainer.ext().getByID(ids[ThreadLocalRandom.current().nextInt(objectCount)]);
+        objectContainer.activate(item, 1);
+        int value = item.getValue();
+        objectContainer.ext().purge(item);
+        return value;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long sequentialScan() {
+        long sum = 0;
+        ObjectSet<Item> items = objectContainer.query(Item.class);
+        for (Item item : items) {
+            sum += item.getValue();
+            objectContainer.ext().purge(item);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void commit() {
+        objectContainer.store(new Item("commit-" + sequence, sequence++, PAYLOAD));
+        objectContainer.commit();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Measures commits per second from a single thread, each commit storing {@code batchSize} new objects, with a
+ * storage that syncs the file on every commit and one that doesn't.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoreCommitBenchmark {
+    private static final String DATASOURCE = "benchmark";
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"file", "non_flushing"})
+    public String storage;
+
+    private int sequence;
+    private File dbfile;
+    private DefaultObjectContainerFactory objectContainerFactory;
+    private ObjectContainer objectContainer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = BenchmarkSupport.newDatabaseFile("store-commit-");
+        Map<String, Object> config = BenchmarkSupport.dataSource(dbfile);
+        config.put("storage", storage);
+        objectContainerFactory = BenchmarkSupport.newObjectContainerFactory(singletonMap(DATASOURCE, config));
+        objectContainer = objectContainerFactory.create(DATASOURCE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        objectContainerFactory.destroy(DATASOURCE, objectContainer);
+        dbfile.delete();
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() {
+        // keep the reference cache from growing across iterations
+        objectContainer.ext().purge();
+    }
+
+    @Benchmark
+    public void storeAndCommit() {
+        for (int i = 0; i < batchSize; i++) {
+            int value = sequence++;
+            objectContainer.store(new Item("key-" + value, value, null));
+        }
+        objectContainer.commit();
+    }
+}
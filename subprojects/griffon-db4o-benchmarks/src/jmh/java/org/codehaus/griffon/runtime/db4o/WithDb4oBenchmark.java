@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import griffon.plugins.db4o.ObjectContainerCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonMap;
+
+/**
+ * Measures what {@code withDb4o} adds on top of calling a callback directly with an open container, for plain
+ * dataSources, dataSources in {@code session_mode} and {@code instrumented} ones.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WithDb4oBenchmark {
+    private static final String DATASOURCE = "benchmark";
+    private static final ObjectContainerCallback<ObjectContainer> CALLBACK = (dataSourceName, objectContainer) -> objectContainer;
+
+    @Param({"plain", "session_mode", "instrumented"})
+    public String mode;
+
+    private File dbfile;
+    private DefaultObjectContainerHandler objectContainerHandler;
+    private ObjectContainer objectContainer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dbfile = BenchmarkSupport.newDatabaseFile("with-db4o-");
+        Map<String, Object> config = BenchmarkSupport.dataSource(dbfile);
+        if (!"plain".equals(mode)) {
+            config.put(mode, true);
+        }
+
+        DefaultObjectContainerFactory objectContainerFactory = BenchmarkSupport.newObjectContainerFactory(singletonMap(DATASOURCE, config));
+        objectContainerHandler = BenchmarkSupport.newObjectContainerHandler(objectContainerFactory);
+        objectContainer = objectContainerHandler.withDb4o(DATASOURCE, CALLBACK);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        objectContainerHandler.closeDb4o(DATASOURCE);
+        dbfile.delete();
+    }
+
+    @Benchmark
+    public ObjectContainer direct() {
+        return CALLBACK.handle(DATASOURCE, objectContainer);
+    }
+
+    @Benchmark
+    public ObjectContainer withDb4o() {
+        return objectContainerHandler.withDb4o(DATASOURCE, CALLBACK);
+    }
+}
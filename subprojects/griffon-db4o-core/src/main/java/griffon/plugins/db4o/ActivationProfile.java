@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Activation settings for a single {@code withDb4o} call. They apply to objects the container activates on its
+ * own, such as query results, but not to explicit {@code activate(object, depth)} calls. Instances are immutable;
+ * every {@code with} method returns a copy.
+ *
+ * @author Andres Almiray
+ */
+public final class ActivationProfile {
+    /**
+     * What happens to the objects activated during the call once the callback returns.
+     */
+    public enum Release {
+        /**
+         * Objects are left as they are.
+         */
+        NONE,
+        /**
+         * Objects are deactivated; the callback's result must not depend on their fields.
+         */
+        DEACTIVATE,
+        /**
+         * Objects are dropped from the reference cache but keep their fields. Storing them again creates new
+         * objects, thus this suits {@code session_mode} dataSources best.
+         */
+        PURGE
+    }
+
+    private final int depth;
+    private final Map<Class<?>, Integer> classDepths;
+    private final Boolean transparentActivation;
+    private final Release release;
+
+    private ActivationProfile(int depth, @Nonnull Map<Class<?>, Integer> classDepths, @Nullable Boolean transparentActivation, @Nonnull Release release) {
+        this.depth = depth;
+        this.classDepths = classDepths;
+        this.transparentActivation = transparentActivation;
+        this.release = release;
+    }
+
+    @Nonnull
+    public static ActivationProfile depth(int depth) {
+        return new ActivationProfile(requireDepth(depth), Collections.emptyMap(), null, Release.NONE);
+    }
+
+    /**
+     * Objects of the given class, or of its subclasses, are activated to this depth when activated directly and
+     * to no more than this depth when reached from another object.
+     */
+    @Nonnull
+    public ActivationProfile withDepth(@Nonnull Class<?> type, int depth) {
+        requireNonNull(type, "Argument 'type' must not be null");
+        Map<Class<?>, Integer> depths = new LinkedHashMap<>(classDepths);
+        depths.put(type, requireDepth(depth));
+        return new ActivationProfile(this.depth, Collections.unmodifiableMap(depths), transparentActivation, release);
+    }
+
+    /**
+     * Turns transparent activation of {@code Activatable} classes on or off for the call. It can only be turned
+     * on for containers configured with transparent activation.
+     */
+    @Nonnull
+    public ActivationProfile withTransparentActivation(boolean transparentActivation) {
+        return new ActivationProfile(depth, classDepths, transparentActivation, release);
+    }
+
+    @Nonnull
+    public ActivationProfile withRelease(@Nonnull Release release) {
+        return new ActivationProfile(depth, classDepths, transparentActivation, requireNonNull(release, "Argument 'release' must not be null"));
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    @Nonnull
+    public Map<Class<?>, Integer> getClassDepths() {
+        return classDepths;
+    }
+
+    /**
+     * @return whether transparent activation is on or off, or {@code null} to keep the container's setting
+     */
+    @Nullable
+    public Boolean getTransparentActivation() {
+        return transparentActivation;
+    }
+
+    @Nonnull
+    public Release getRelease() {
+        return release;
+    }
+
+    @Override
+    public String toString() {
+        return "ActivationProfile[depth=" + depth + ", classDepths=" + classDepths +
+            ", transparentActivation=" + transparentActivation + ", release=" + release + "]";
+    }
+
+    private static int requireDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Argument 'depth' must not be negative");
+        }
+        return depth;
+    }
+}
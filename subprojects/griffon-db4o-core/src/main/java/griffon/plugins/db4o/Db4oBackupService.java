@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Takes online backups of dataSources while they are in use. Returned futures complete with the backup file
+ * once it has been written and older backups past the retention limit have been removed.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oBackupService {
+    // tag::methods[]
+    @Nonnull
+    CompletableFuture<File> backup();
+
+    @Nonnull
+    CompletableFuture<File> backup(@Nonnull String dataSourceName);
+
+    @Nonnull
+    List<File> getBackups();
+
+    @Nonnull
+    List<File> getBackups(@Nonnull String dataSourceName);
+
+    void close();
+    // end::methods[]
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queues store and delete operations from any thread and applies them in group commits. Returned futures
+ * complete once the commit that includes the operation has returned.
+ * <p>
+ * Groups are applied through the dataSource's root container, thus objects handed to the writer must be new or
+ * have been loaded by that container; dataSources with {@code session_mode} and clients are not supported. An
+ * operation that throws fails its own future only, the rest of its group is still committed, along with whatever
+ * the failing operation managed to store before it threw.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oBatchWriter {
+    // tag::methods[]
+    @Nonnull
+    CompletableFuture<Void> store(@Nonnull Object object);
+
+    @Nonnull
+    CompletableFuture<Void> store(@Nonnull String dataSourceName, @Nonnull Object object);
+
+    @Nonnull
+    CompletableFuture<Void> delete(@Nonnull Object object);
+
+    @Nonnull
+    CompletableFuture<Void> delete(@Nonnull String dataSourceName, @Nonnull Object object);
+
+    void close();
+
+    void close(@Nonnull String dataSourceName);
+    // end::methods[]
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Moves large amounts of objects in and out of a dataSource. Imports commit every {@code bulk_chunk_size}
+ * objects and drop them from the reference cache once committed; exports visit one object at a time.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oBulkService {
+    // tag::methods[]
+    long importObjects(@Nonnull Iterator<?> objects);
+
+    long importObjects(@Nonnull String dataSourceName, @Nonnull Iterator<?> objects);
+
+    long importObjects(@Nonnull Stream<?> objects);
+
+    long importObjects(@Nonnull String dataSourceName, @Nonnull Stream<?> objects);
+
+    long exportObjects(@Nonnull Class<?> type, @Nonnull Path file, @Nonnull ExportFormat format);
+
+    long exportObjects(@Nonnull String dataSourceName, @Nonnull Class<?> type, @Nonnull Path file, @Nonnull ExportFormat format);
+    // end::methods[]
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compacts the file of a dataSource with db4o's {@code Defragment}. The compacted copy is built while the
+ * dataSource stays in use; callbacks are only held while the files are swapped.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oDefragmentService {
+    // tag::methods[]
+    @Nonnull
+    CompletableFuture<DefragmentResult> defragment();
+
+    @Nonnull
+    CompletableFuture<DefragmentResult> defragment(@Nonnull String dataSourceName);
+
+    void close();
+    // end::methods[]
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Receives timings of {@code withDb4o} callbacks for dataSources with {@code instrumented = true}.
+ * Bind your own implementation in a module to publish them elsewhere.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oMetrics {
+    void callbackStarted(@Nonnull String dataSourceName, @Nonnull Class<?> callbackType);
+
+    void callbackFinished(@Nonnull String dataSourceName, @Nonnull Class<?> callbackType, long durationNanos, boolean failed);
+}
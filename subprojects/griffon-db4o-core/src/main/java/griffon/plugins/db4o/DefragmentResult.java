@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+import javax.annotation.Nonnull;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Outcome of a defragmentation run. Sizes are given in bytes and times in milliseconds.
+ *
+ * @author Andres Almiray
+ */
+public final class DefragmentResult {
+    private final String dataSourceName;
+    private final long sizeBefore;
+    private final long sizeAfter;
+    private final long elapsedTime;
+    private final long swapTime;
+
+    public DefragmentResult(@Nonnull String dataSourceName, long sizeBefore, long sizeAfter, long elapsedTime, long swapTime) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.sizeBefore = sizeBefore;
+        this.sizeAfter = sizeAfter;
+        this.elapsedTime = elapsedTime;
+        this.swapTime = swapTime;
+    }
+
+    @Nonnull
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    public long getSizeBefore() {
+        return sizeBefore;
+    }
+
+    public long getSizeAfter() {
+        return sizeAfter;
+    }
+
+    public long getBytesReclaimed() {
+        return Math.max(0L, sizeBefore - sizeAfter);
+    }
+
+    /**
+     * @return time taken by the whole run
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * @return time during which callbacks were held
+     */
+    public long getSwapTime() {
+        return swapTime;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o;
+
+/**
+ * File formats written by {@link Db4oBulkService#exportObjects}. Both formats hold one record per stored object
+ * carrying its class name, its db4o ID and its fields. References to other stored objects are written as their
+ * IDs; collections, maps and arrays are written inline.
+ *
+ * @author Andres Almiray
+ */
+public enum ExportFormat {
+    /**
+     * One JSON object per line. Class and ID are written as {@code "@class"} and {@code "@id"}, references to
+     * stored objects as {@code {"@ref": id}} and maps as {@code {"@map": [[key, value], ...]}}.
+     */
+    NDJSON,
+
+    /**
+     * Tagged values with variable length integers. Class and field names are written once, the first time the
+     * class is seen; later records refer to the class by its index.
+     */
+    BINARY
+}
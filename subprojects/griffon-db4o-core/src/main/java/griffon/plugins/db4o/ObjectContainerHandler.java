@@ -15,8 +15,15 @@
  */
 package griffon.plugins.db4o;
 
+import com.db4o.query.Predicate;
+import griffon.plugins.db4o.ids.LongIdMap;
+import griffon.plugins.db4o.ids.LongIdSet;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 
 /**
  * @author Andres Almiray
@@ -29,6 +36,67 @@ public interface ObjectContainerHandler {
     @Nullable
     <R> R withDb4o(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback);
 
+    @Nullable
+    <R> R withDb4oActivation(@Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback);
+
+    @Nullable
+    <R> R withDb4oActivation(@Nonnull String dataSourceName, @Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback);
+
+    @Nullable
+    <R> R withDb4oReadOnly(@Nonnull ObjectContainerCallback<R> callback);
+
+    @Nullable
+    <R> R withDb4oReadOnly(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback);
+
+    @Nullable
+    <R> R withDb4oTransaction(@Nonnull ObjectContainerCallback<R> callback);
+
+    /**
+     * Runs the callback in a session of its own, even when {@code session_mode} is off. Objects obtained outside of
+     * the callback, such as by an earlier {@code withDb4o} call, are unknown to that session: storing them inserts
+     * duplicates and deleting them does nothing. Load the objects to change within the callback instead.
+     */
+    @Nullable
+    <R> R withDb4oTransaction(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback);
+
+    @Nonnull
+    <R> CompletableFuture<R> withDb4oAsync(@Nonnull ObjectContainerCallback<R> callback);
+
+    @Nonnull
+    <R> CompletableFuture<R> withDb4oAsync(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback);
+
+    @Nonnull
+    <T> Stream<T> streamQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize);
+
+    @Nonnull
+    <T> Stream<T> streamQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize);
+
+    @Nonnull
+    <T> List<T> cachedQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate);
+
+    /**
+     * Cached results are only dropped by commits that touch objects of the given type or its subtypes. Predicates
+     * that look at referenced objects of other classes keep returning stale results once those objects change.
+     */
+    @Nonnull
+    <T> List<T> cachedQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate);
+
+    @Nonnull
+    <T> LongIdSet queryIDs(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate);
+
+    @Nonnull
+    <T> LongIdSet queryIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate);
+
+    @Nonnull
+    <T> LongIdMap<T> getByIDs(@Nonnull Class<T> type, @Nonnull LongIdSet ids);
+
+    @Nonnull
+    <T> LongIdMap<T> getByIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull LongIdSet ids);
+
+    int deleteByIDs(@Nonnull LongIdSet ids);
+
+    int deleteByIDs(@Nonnull String dataSourceName, @Nonnull LongIdSet ids);
+
     void closeDb4o();
 
     void closeDb4o(@Nonnull String dataSourceName);
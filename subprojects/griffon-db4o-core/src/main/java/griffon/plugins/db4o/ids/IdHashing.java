@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o.ids;
+
+/**
+ * Sizing and hashing shared by the open addressing tables of this package. Tables hold a power of two slots
+ * and are kept at most three quarters full; {@code 0} marks a free slot, thus the ID {@code 0} is tracked aside.
+ *
+ * @author Andres Almiray
+ */
+final class IdHashing {
+    static final int DEFAULT_EXPECTED_SIZE = 16;
+    static final int MAX_CAPACITY = 1 << 30;
+
+    private IdHashing() {
+        // prevent instantiation
+    }
+
+    static int capacityFor(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Argument 'expectedSize' must not be negative");
+        }
+        long needed = Math.max(4L, (long) expectedSize * 4 / 3 + 1);
+        if (needed > MAX_CAPACITY) {
+            return MAX_CAPACITY;
+        }
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    static int threshold(int capacity) {
+        return capacity - (capacity >>> 2);
+    }
+
+    /**
+     * IDs handed out by db4o are slot addresses, often sharing their low bits; spread them over the table.
+     */
+    static int slot(long id, int mask) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    static int grow(int capacity) {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Too many IDs");
+        }
+        return capacity << 1;
+    }
+}
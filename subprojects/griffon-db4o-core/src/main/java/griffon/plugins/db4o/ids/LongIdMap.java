@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o.ids;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A map from object IDs, kept as primitive {@code long} values, to non-null values. It takes a fraction of
+ * the memory of a {@code HashMap<Long, V>} and boxes nothing. Iteration order is unspecified. Not thread safe.
+ *
+ * @author Andres Almiray
+ */
+public final class LongIdMap<V> {
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private int threshold;
+    private Object zeroValue;
+
+    public LongIdMap() {
+        this(IdHashing.DEFAULT_EXPECTED_SIZE);
+    }
+
+    public LongIdMap(int expectedSize) {
+        allocate(IdHashing.capacityFor(expectedSize));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(long id) {
+        return get(id) != null;
+    }
+
+    @Nullable
+    public V get(long id) {
+        if (id == 0L) {
+            return cast(zeroValue);
+        }
+        int mask = keys.length - 1;
+        for (int i = IdHashing.slot(id, mask); keys[i] != 0L; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return cast(values[i]);
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    public V getOrDefault(long id, @Nonnull V defaultValue) {
+        V value = get(id);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @return the value previously mapped to the ID, if any
+     */
+    @Nullable
+    public V put(long id, @Nonnull V value) {
+        requireNonNull(value, "Argument 'value' must not be null");
+        if (id == 0L) {
+            V previous = cast(zeroValue);
+            if (previous == null) {
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        int i = IdHashing.slot(id, mask);
+        for (; keys[i] != 0L; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                V previous = cast(values[i]);
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = id;
+        values[i] = value;
+        if (++size > threshold) {
+            rehash(IdHashing.grow(keys.length));
+        }
+        return null;
+    }
+
+    /**
+     * @return the value that was mapped to the ID, if any
+     */
+    @Nullable
+    public V remove(long id) {
+        if (id == 0L) {
+            V previous = cast(zeroValue);
+            if (previous != null) {
+                zeroValue = null;
+                size--;
+            }
+            return previous;
+        }
+
+        int mask = keys.length - 1;
+        for (int i = IdHashing.slot(id, mask); keys[i] != 0L; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                V previous = cast(values[i]);
+                keys[i] = 0L;
+                values[i] = null;
+                closeGap(i);
+                size--;
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0L);
+        Arrays.fill(values, null);
+        zeroValue = null;
+        size = 0;
+    }
+
+    public void forEach(@Nonnull EntryConsumer<? super V> action) {
+        requireNonNull(action, "Argument 'action' must not be null");
+        if (zeroValue != null) {
+            action.accept(0L, cast(zeroValue));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0L) {
+                action.accept(keys[i], cast(values[i]));
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the IDs held by this map
+     */
+    @Nonnull
+    public LongIdSet keySet() {
+        LongIdSet ids = new LongIdSet(size);
+        forEach((id, value) -> ids.add(id));
+        return ids;
+    }
+
+    /**
+     * @return a copy of the values held by this map
+     */
+    @Nonnull
+    public List<V> values() {
+        List<V> list = new ArrayList<>(size);
+        forEach((id, value) -> list.add(value));
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        forEach((id, value) -> b.append(b.length() > 1 ? ", " : "").append(id).append('=').append(value));
+        return b.append('}').toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V cast(Object value) {
+        return (V) value;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        threshold = IdHashing.threshold(capacity);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0L) {
+                int i = IdHashing.slot(oldKeys[j], mask);
+                while (keys[i] != 0L) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void closeGap(int gap) {
+        int mask = keys.length - 1;
+        for (int i = (gap + 1) & mask; keys[i] != 0L; i = (i + 1) & mask) {
+            int home = IdHashing.slot(keys[i], mask);
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                keys[i] = 0L;
+                values[i] = null;
+                gap = i;
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of a {@code LongIdMap} without boxing their IDs.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long id, @Nonnull V value);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+
+/**
+ * Base for services that look after dataSources in the background. Runs are queued on a single daemon thread
+ * and performed one at a time, whether requested or scheduled.
+ *
+ * @param <R> the outcome of a run
+ * @author Andres Almiray
+ */
+public abstract class AbstractMaintenanceService<R> {
+    private final String serviceName;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Set<Run> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    protected AbstractMaintenanceService(@Nonnull String serviceName, @Nonnull String threadName) {
+        this.serviceName = requireNonBlank(serviceName, "Argument 'serviceName' must not be blank");
+        requireNonBlank(threadName, "Argument 'threadName' must not be blank");
+
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Cancels scheduled and queued runs. A run that is already in progress is left to finish.
+     */
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        IllegalStateException exception = new IllegalStateException(serviceName + " has been closed");
+        for (Run run : pending) {
+            if (run.started.compareAndSet(false, true)) {
+                pending.remove(run);
+                run.future.completeExceptionally(exception);
+            }
+        }
+    }
+
+    /**
+     * Queues a run for the given dataSource behind the ones already waiting.
+     */
+    @Nonnull
+    protected CompletableFuture<R> submit(@Nonnull String dataSourceName) {
+        if (closed) {
+            throw new IllegalStateException(serviceName + " has been closed");
+        }
+
+        Run run = new Run(dataSourceName);
+        pending.add(run);
+        scheduler.execute(run);
+        return run.future;
+    }
+
+    protected void schedule(@Nonnull Runnable task, long period) {
+        scheduler.scheduleWithFixedDelay(task, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Performs a run. Always called from the service's own thread.
+     */
+    @Nonnull
+    protected abstract R perform(@Nonnull String dataSourceName);
+
+    private final class Run implements Runnable {
+        private final String dataSourceName;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        private Run(@Nonnull String dataSourceName) {
+            this.dataSourceName = dataSourceName;
+        }
+
+        @Override
+        public void run() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+            pending.remove(this);
+            try {
+                future.complete(perform(dataSourceName));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hands the elements of a parallel stream to a single consuming thread. The stream is consumed on a fork-join
+ * pool of its own, as parallel streams fork into the pool their terminal operation runs in, thus producers that
+ * wait for room never tie up the common pool. The queue is bounded so producers can't run ahead of the consumer
+ * by more than its capacity. Closing the queue before the stream is exhausted makes the producers give up.
+ *
+ * @author Andres Almiray
+ */
+final class BulkImportQueue implements Iterator<Object>, AutoCloseable {
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT = 100L;
+
+    private final BlockingQueue<Object> queue;
+    private final ForkJoinPool producers;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private Object next;
+
+    BulkImportQueue(@Nonnull Stream<?> objects, int capacity) {
+        requireNonNull(objects, "Argument 'objects' must not be null");
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.producers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("db4o-bulk-import-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        producers.execute(() -> {
+            try {
+                objects.forEach(object -> put(requireNonNull(object, "Imported objects must not be null")));
+            } catch (Throwable t) {
+                failure = t;
+            } finally {
+                put(END);
+            }
+        });
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for objects to import", e);
+            }
+        }
+        if (next != END) {
+            return true;
+        }
+
+        Throwable t = failure;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IllegalStateException(t);
+        }
+        return false;
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object object = next;
+        next = null;
+        return object;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        queue.clear();
+        producers.shutdown();
+    }
+
+    private void put(@Nonnull Object object) {
+        Offer offer = new Offer(object);
+        try {
+            // lets the pool make up for producers that wait for room
+            ForkJoinPool.managedBlock(offer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while queueing objects to import");
+        }
+        if (!offer.offered && object != END) {
+            throw new CancellationException("Import has been aborted");
+        }
+    }
+
+    private final class Offer implements ForkJoinPool.ManagedBlocker {
+        private final Object object;
+        private boolean offered;
+
+        private Offer(@Nonnull Object object) {
+            this.object = object;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            offered = queue.offer(object, OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            return offered || closed;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!offered && !closed) {
+                offered = queue.offer(object);
+            }
+            return offered || closed;
+        }
+    }
+}
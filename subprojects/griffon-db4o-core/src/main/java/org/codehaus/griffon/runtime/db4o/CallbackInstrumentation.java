@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import griffon.plugins.db4o.Db4oMetrics;
+import griffon.plugins.db4o.ObjectContainerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times callbacks of an instrumented dataSource and reports them to {@code Db4oMetrics}. Callbacks slower
+ * than {@code slow_callback_threshold} milliseconds are logged along with the caller's stack.
+ *
+ * @author Andres Almiray
+ */
+final class CallbackInstrumentation {
+    static final String KEY_INSTRUMENTED = "instrumented";
+    static final String KEY_SLOW_CALLBACK_THRESHOLD = "slow_callback_threshold";
+
+    private static final Logger LOG = LoggerFactory.getLogger(CallbackInstrumentation.class);
+
+    private final String dataSourceName;
+    private final Db4oMetrics metrics;
+    private final long slowThreshold;
+
+    CallbackInstrumentation(@Nonnull String dataSourceName, @Nonnull Db4oMetrics metrics, long slowThresholdMillis) {
+        this.dataSourceName = dataSourceName;
+        this.metrics = metrics;
+        this.slowThreshold = slowThresholdMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis) : Long.MAX_VALUE;
+    }
+
+    @Nullable
+    <R> R execute(@Nonnull ObjectContainer objectContainer, @Nonnull ObjectContainerCallback<R> callback) {
+        Class<?> callbackType = callback.getClass();
+        metrics.callbackStarted(dataSourceName, callbackType);
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            R result = DefaultObjectContainerHandler.doWithObjectContainer(dataSourceName, objectContainer, callback);
+            failed = false;
+            return result;
+        } finally {
+            long duration = System.nanoTime() - start;
+            metrics.callbackFinished(dataSourceName, callbackType, duration, failed);
+            if (duration >= slowThreshold) {
+                LOG.warn("Callback {} on objectContainer '{}' took {}ms", callbackType.getName(), dataSourceName,
+                    TimeUnit.NANOSECONDS.toMillis(duration), new Throwable("Slow callback"));
+            }
+        }
+    }
+}
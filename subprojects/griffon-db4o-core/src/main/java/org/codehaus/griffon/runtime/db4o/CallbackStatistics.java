@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulated timings of a group of callbacks. Times are given in milliseconds.
+ *
+ * @author Andres Almiray
+ */
+public final class CallbackStatistics {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder time = new LongAdder();
+    private final AtomicLong timeMax = new AtomicLong();
+
+    void record(long durationNanos, boolean failed) {
+        count.increment();
+        if (failed) {
+            failureCount.increment();
+        }
+        time.add(durationNanos);
+        timeMax.accumulateAndGet(durationNanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getFailureCount() {
+        return failureCount.sum();
+    }
+
+    public double getTimeTotal() {
+        return time.sum() / 1000000d;
+    }
+
+    public double getTimeAverage() {
+        long n = count.sum();
+        return n > 0 ? getTimeTotal() / n : 0d;
+    }
+
+    public double getTimeMax() {
+        return timeMax.get() / 1000000d;
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the callbacks running against a dataSource so that closing it may wait for them to finish, and
+ * remembers when the dataSource was last used. Callers only pay for an atomic counter unless somebody is
+ * waiting. An idle dataSource may be claimed for eviction, which holds new callbacks until it is released.
+ * A busy one may be claimed as well by holding new callbacks while the running ones finish. Callbacks nested
+ * in one that is already running on the same thread are let through while the dataSource is being claimed,
+ * otherwise the outer callback could never finish. Maintenance work keeps the dataSource busy like any callback
+ * does but leaves it looking idle, thus scheduled backups don't keep otherwise unused containers open.
+ *
+ * @author Andres Almiray
+ */
+final class CallbackTracker {
+    private static final int EVICTING = -1;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final Object lock = new Object();
+    private final ThreadLocal<Held> depth = ThreadLocal.withInitial(Held::new);
+    private volatile boolean awaiting;
+    private volatile boolean draining;
+    private volatile long lastUsed = System.nanoTime();
+
+    void enter() {
+        enter(depth.get());
+    }
+
+    void exit() {
+        Held held = depth.get();
+        exit(held, held.maintenance == 0);
+    }
+
+    /**
+     * Enters like {@link #enter()} does for work that may finish on another thread, such as a stream.
+     *
+     * @return gives back what was entered, on whichever thread it runs, to the entering thread
+     */
+    @Nonnull
+    Runnable enterDetached() {
+        Held held = depth.get();
+        enter(held);
+        boolean used = held.maintenance == 0;
+        return () -> exit(held, used);
+    }
+
+    private void enter(@Nonnull Held held) {
+        for (; ; ) {
+            int current = running.get();
+            if (current >= 0 && !draining || current > 0 && held.depth.get() > 0) {
+                if (running.compareAndSet(current, current + 1)) {
+                    held.depth.incrementAndGet();
+                    return;
+                }
+            } else {
+                awaitRelease();
+            }
+        }
+    }
+
+    /**
+     * Enters like a callback would. Callbacks nested in the maintenance work don't update {@link #getLastUsed()}.
+     */
+    void enterMaintenance() {
+        Held held = depth.get();
+        enter(held);
+        held.maintenance++;
+    }
+
+    void exitMaintenance() {
+        Held held = depth.get();
+        held.maintenance--;
+        exit(held, false);
+    }
+
+    private void exit(@Nonnull Held held, boolean used) {
+        held.depth.decrementAndGet();
+        if (used) {
+            lastUsed = System.nanoTime();
+        }
+        if (running.decrementAndGet() == 0 && awaiting) {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    int getRunning() {
+        return Math.max(0, running.get());
+    }
+
+    /**
+     * @return value of {@code System.nanoTime()} when the last callback finished
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * @return {@code true} if no callbacks were running and new ones are held until {@link #release()}
+     */
+    boolean tryClaim() {
+        return running.compareAndSet(0, EVICTING);
+    }
+
+    /**
+     * Holds new callbacks and waits for running ones to finish.
+     *
+     * @return {@code true} if the dataSource was claimed before the timeout elapsed, in which case new
+     * callbacks are held until {@link #release()}
+     */
+    boolean claim(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            draining = true;
+            awaiting = true;
+            try {
+                while (!running.compareAndSet(0, EVICTING)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            } finally {
+                draining = false;
+                awaiting = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    void release() {
+        synchronized (lock) {
+            lastUsed = System.nanoTime();
+            running.set(0);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return {@code true} if no callbacks were left running before the timeout elapsed
+     */
+    boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        awaiting = true;
+        try {
+            synchronized (lock) {
+                while (running.get() > 0) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+                return true;
+            }
+        } finally {
+            awaiting = false;
+        }
+    }
+
+    private void awaitRelease() {
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (running.get() < 0 || draining) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * What a thread holds. Detached work gives back its depth from any thread, maintenance is left by its own.
+     */
+    private static final class Held {
+        private final AtomicInteger depth = new AtomicInteger();
+        private int maintenance;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps track of the callbacks running against every dataSource. Shared by the handler, which runs callbacks
+ * through it, and by maintenance services that need a dataSource to themselves for a moment.
+ *
+ * @author Andres Almiray
+ */
+public class CallbackTrackers {
+    private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
+
+    private final ConcurrentMap<String, CallbackTracker> callbackTrackers = new ConcurrentHashMap<>();
+
+    /**
+     * Holds new callbacks for the given dataSource, waits for running ones to finish and runs the action
+     * while no callback may touch the dataSource.
+     *
+     * @return {@code false} if callbacks were still running when the timeout elapsed, in which case the
+     * action does not run
+     */
+    public boolean runExclusively(@Nonnull String dataSourceName, long timeout, @Nonnull TimeUnit unit, @Nonnull Runnable action) throws InterruptedException {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(unit, "Argument 'unit' must not be null");
+        requireNonNull(action, "Argument 'action' must not be null");
+
+        CallbackTracker callbackTracker = get(dataSourceName);
+        if (!callbackTracker.claim(timeout, unit)) {
+            return false;
+        }
+        try {
+            action.run();
+            return true;
+        } finally {
+            callbackTracker.release();
+        }
+    }
+
+    /**
+     * Runs maintenance work, such as a backup, against the given dataSource. The dataSource counts as busy in the
+     * meantime, yet callbacks made by the work do not count as using it, thus idle containers are closed on time.
+     */
+    public <R> R runMaintenance(@Nonnull String dataSourceName, @Nonnull Supplier<R> work) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(work, "Argument 'work' must not be null");
+
+        CallbackTracker callbackTracker = get(dataSourceName);
+        callbackTracker.enterMaintenance();
+        try {
+            return work.get();
+        } finally {
+            callbackTracker.exitMaintenance();
+        }
+    }
+
+    @Nonnull
+    CallbackTracker get(@Nonnull String dataSourceName) {
+        CallbackTracker callbackTracker = callbackTrackers.get(dataSourceName);
+        return callbackTracker != null ? callbackTracker : callbackTrackers.computeIfAbsent(dataSourceName, name -> new CallbackTracker());
+    }
+}
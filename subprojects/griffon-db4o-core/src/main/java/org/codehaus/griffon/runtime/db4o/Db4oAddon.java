@@ -16,65 +16,313 @@
 package org.codehaus.griffon.runtime.db4o;
 
 import com.db4o.ObjectContainer;
+import com.db4o.config.CommonConfigurationProvider;
 import griffon.core.GriffonApplication;
 import griffon.core.env.Metadata;
+import griffon.plugins.db4o.Db4oBackupService;
+import griffon.plugins.db4o.Db4oBatchWriter;
+import griffon.plugins.db4o.Db4oDefragmentService;
+import griffon.plugins.db4o.Db4oMetrics;
 import griffon.plugins.db4o.ObjectContainerCallback;
 import griffon.plugins.db4o.ObjectContainerFactory;
 import griffon.plugins.db4o.ObjectContainerHandler;
 import griffon.plugins.db4o.ObjectContainerStorage;
 import griffon.plugins.monitor.MBeanManager;
 import org.codehaus.griffon.runtime.core.addon.AbstractGriffonAddon;
+import org.codehaus.griffon.runtime.jmx.Db4oMetricsMonitor;
+import org.codehaus.griffon.runtime.jmx.ObjectContainerMonitor;
 import org.codehaus.griffon.runtime.jmx.ObjectContainerStorageMonitor;
+import org.codehaus.griffon.runtime.jmx.QueryCacheMonitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static java.util.Arrays.asList;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
 
 /**
  * @author Andres Almiray
  */
 @Named("db4o")
 public class Db4oAddon extends AbstractGriffonAddon {
+    private static final Logger LOG = LoggerFactory.getLogger(Db4oAddon.class);
+    private static final String KEY_CONNECT_ON_STARTUP = "connect_on_startup";
+    private static final String CONNECT_EAGER = "eager";
+    private static final String CONNECT_BACKGROUND = "background";
+    private static final String KEY_SHUTDOWN_GRACE_PERIOD = "shutdown_grace_period";
+    private static final String KEY_CLOSE_TIMEOUT = "close_timeout";
+    private static final long DEFAULT_SHUTDOWN_GRACE_PERIOD = 5000L;
+    private static final long DEFAULT_CLOSE_TIMEOUT = 10000L;
+
     @Inject
     private ObjectContainerHandler objectContainerHandler;
 
     @Inject
     private ObjectContainerFactory objectContainerFactory;
 
+    @Inject
+    private Db4oBatchWriter db4oBatchWriter;
+
+    @Inject
+    private Db4oBackupService db4oBackupService;
+
+    @Inject
+    private Db4oDefragmentService db4oDefragmentService;
+
     @Inject
     private ObjectContainerStorage objectContainerStorage;
 
+    @Inject
+    private Db4oMetrics db4oMetrics;
+
     @Inject
     private MBeanManager mbeanManager;
 
     @Inject
     private Metadata metadata;
 
+    private final ConcurrentMap<String, ObjectContainerMetrics> metrics = new ConcurrentHashMap<>();
+    private final Map<String, Long> gracePeriods = new LinkedHashMap<>();
+    private final Map<String, Long> closeTimeouts = new LinkedHashMap<>();
+
     @Override
     public void init(@Nonnull GriffonApplication application) {
+        // shutdown must not fail half way through, thus its settings are checked up front
+        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+            long gracePeriod = getConfigValueAsLong(config, KEY_SHUTDOWN_GRACE_PERIOD, DEFAULT_SHUTDOWN_GRACE_PERIOD);
+            long closeTimeout = getConfigValueAsLong(config, KEY_CLOSE_TIMEOUT, DEFAULT_CLOSE_TIMEOUT);
+            if (gracePeriod < 0) {
+                throw invalid(dataSourceName, KEY_SHUTDOWN_GRACE_PERIOD, gracePeriod, "must not be negative");
+            }
+            if (closeTimeout < 1) {
+                throw invalid(dataSourceName, KEY_CLOSE_TIMEOUT, closeTimeout, "must be greater than zero");
+            }
+            gracePeriods.put(dataSourceName, gracePeriod);
+            closeTimeouts.put(dataSourceName, closeTimeout);
+        }
+
         mbeanManager.registerMBean(new ObjectContainerStorageMonitor(metadata, objectContainerStorage));
+        if (db4oMetrics instanceof InMemoryDb4oMetrics) {
+            mbeanManager.registerMBean(new Db4oMetricsMonitor(metadata, (InMemoryDb4oMetrics) db4oMetrics));
+        }
+        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
+            mbeanManager.registerMBean(new ObjectContainerMonitor(metadata, getMetrics(dataSourceName)));
+            if (objectContainerHandler instanceof DefaultObjectContainerHandler) {
+                QueryCacheStatistics statistics = ((DefaultObjectContainerHandler) objectContainerHandler).getQueryCacheStatistics(dataSourceName);
+                if (statistics != null) {
+                    mbeanManager.registerMBean(new QueryCacheMonitor(metadata, dataSourceName, statistics));
+                }
+            }
+        }
+        if (db4oBackupService instanceof DefaultDb4oBackupService) {
+            ((DefaultDb4oBackupService) db4oBackupService).start();
+        }
+        if (db4oDefragmentService instanceof DefaultDb4oDefragmentService) {
+            ((DefaultDb4oDefragmentService) db4oDefragmentService).start();
+        }
+    }
+
+    public void onDb4oConfigurationSetup(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfigurationProvider configuration) {
+        configuration.common().diagnostic().addListener(getMetrics(dataSourceName));
+    }
+
+    public void onDb4oConnectEnd(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull ObjectContainer objectContainer) {
+        getMetrics(dataSourceName).attach(objectContainer);
+    }
+
+    public void onDb4oDisconnectStart(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull ObjectContainer objectContainer) {
+        getMetrics(dataSourceName).detach();
     }
 
     public void onStartupStart(@Nonnull GriffonApplication application) {
+        List<String> eager = new ArrayList<>();
+        List<String> background = new ArrayList<>();
         for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
             Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
-            if (getConfigValueAsBoolean(config, "connect_on_startup", false)) {
-                objectContainerHandler.withDb4o(new ObjectContainerCallback<Object>() {
-                    @Override
-                    public Object handle(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer) {
-                        return null;
+            String connectOnStartup = getConfigValueAsString(config, KEY_CONNECT_ON_STARTUP, "false");
+            switch (connectOnStartup) {
+                case "true":
+                case CONNECT_EAGER:
+                    eager.add(dataSourceName);
+                    break;
+                case CONNECT_BACKGROUND:
+                    background.add(dataSourceName);
+                    break;
+                case "false":
+                    break;
+                default:
+                    throw invalid(dataSourceName, KEY_CONNECT_ON_STARTUP, connectOnStartup, "must be one of true, false, " + CONNECT_EAGER + " or " + CONNECT_BACKGROUND);
+            }
+        }
+
+        int count = eager.size() + background.size();
+        if (count == 0) {
+            return;
+        }
+
+        // opening a container is dominated by file I/O, thus open them side by side
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()), runnable -> {
+            Thread thread = new Thread(runnable, "db4o-startup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Void>> connections = new ArrayList<>();
+            for (String dataSourceName : eager) {
+                connections.add(CompletableFuture.runAsync(() -> connect(dataSourceName), executor));
+            }
+            for (String dataSourceName : background) {
+                CompletableFuture.runAsync(() -> connect(dataSourceName), executor).whenComplete((result, throwable) -> {
+                    if (throwable != null) {
+                        LOG.error("Could not connect to objectContainer '{}' in the background", dataSourceName, throwable.getCause());
                     }
                 });
             }
+            CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[connections.size()])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            // already submitted connections keep running
+            executor.shutdown();
         }
     }
 
     public void onShutdownStart(@Nonnull GriffonApplication application) {
-        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
-            objectContainerHandler.closeDb4o(dataSourceName);
+        // a failing service must not keep the containers from being closed
+        try {
+            db4oBackupService.close();
+        } catch (RuntimeException e) {
+            LOG.error("Could not close the backup service", e);
+        }
+        try {
+            db4oDefragmentService.close();
+        } catch (RuntimeException e) {
+            LOG.error("Could not close the defragment service", e);
+        }
+
+        // each dataSource drains and closes on its own thread, keeping its Disconnect events in order
+        long start = System.nanoTime();
+        Map<String, Future<?>> closings = new LinkedHashMap<>();
+        Map<String, CompletableFuture<Long>> closeStarts = new LinkedHashMap<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "db4o-shutdown-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<String> servers = new ArrayList<>();
+        List<Future<?>> others = new ArrayList<>();
+        for (Map.Entry<String, Long> gracePeriod : gracePeriods.entrySet()) {
+            String dataSourceName = gracePeriod.getKey();
+            if (ObjectContainerClientServer.TYPE_SERVER.equals(ObjectContainerClientServer.resolveType(dataSourceName, objectContainerFactory.getConfigurationFor(dataSourceName)))) {
+                servers.add(dataSourceName);
+                continue;
+            }
+            CompletableFuture<Long> closeStart = new CompletableFuture<>();
+            closeStarts.put(dataSourceName, closeStart);
+            Future<?> closing = executor.submit(() -> close(dataSourceName, gracePeriod.getValue(), closeStart));
+            closings.put(dataSourceName, closing);
+            others.add(closing);
+        }
+        // servers go last as clients in this process may still be connected to them
+        for (String dataSourceName : servers) {
+            CompletableFuture<Long> closeStart = new CompletableFuture<>();
+            closeStarts.put(dataSourceName, closeStart);
+            closings.put(dataSourceName, executor.submit(() -> {
+                awaitQuietly(others);
+                close(dataSourceName, gracePeriods.get(dataSourceName), closeStart);
+            }));
+        }
+        executor.shutdown();
+
+        for (Map.Entry<String, Future<?>> closing : closings.entrySet()) {
+            String dataSourceName = closing.getKey();
+            long closeTimeout = closeTimeouts.get(dataSourceName);
+            long drainDeadline = start + TimeUnit.MILLISECONDS.toNanos(gracePeriods.get(dataSourceName) + closeTimeout);
+            try {
+                long closeStart = closeStarts.get(dataSourceName).get(Math.max(0L, drainDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                long closeDeadline = closeStart + TimeUnit.MILLISECONDS.toNanos(closeTimeout);
+                closing.getValue().get(Math.max(0L, closeDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                LOG.warn("ObjectContainer '{}' did not close within {}ms. Leaving it behind", dataSourceName, closeTimeout);
+                application.getEventRouter().publishEvent("Db4oCloseTimeout", asList(dataSourceName, closeTimeout));
+            } catch (ExecutionException e) {
+                LOG.error("Could not close objectContainer '{}'", dataSourceName, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void close(@Nonnull String dataSourceName, long gracePeriod, @Nonnull CompletableFuture<Long> closeStart) {
+        try {
+            db4oBatchWriter.close(dataSourceName);
+            if (objectContainerHandler instanceof DefaultObjectContainerHandler &&
+                !((DefaultObjectContainerHandler) objectContainerHandler).awaitCallbacks(dataSourceName, gracePeriod, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Closing objectContainer '{}' while callbacks are still running after {}ms", dataSourceName, gracePeriod);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // close_timeout counts from here
+            closeStart.complete(System.nanoTime());
+        }
+        objectContainerHandler.closeDb4o(dataSourceName);
+    }
+
+    private static void awaitQuietly(@Nonnull List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // reported by onShutdownStart
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
     }
+
+    private void connect(@Nonnull String dataSourceName) {
+        objectContainerHandler.withDb4o(dataSourceName, new ObjectContainerCallback<Object>() {
+            @Override
+            public Object handle(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer) {
+                return null;
+            }
+        });
+    }
+
+    @Nonnull
+    private ObjectContainerMetrics getMetrics(@Nonnull String dataSourceName) {
+        return metrics.computeIfAbsent(dataSourceName, ObjectContainerMetrics::new);
+    }
 }
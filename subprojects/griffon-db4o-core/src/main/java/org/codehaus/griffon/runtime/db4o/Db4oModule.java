@@ -18,6 +18,11 @@ package org.codehaus.griffon.runtime.db4o;
 import griffon.core.Configuration;
 import griffon.core.addon.GriffonAddon;
 import griffon.core.injection.Module;
+import griffon.plugins.db4o.Db4oBackupService;
+import griffon.plugins.db4o.Db4oBatchWriter;
+import griffon.plugins.db4o.Db4oBulkService;
+import griffon.plugins.db4o.Db4oDefragmentService;
+import griffon.plugins.db4o.Db4oMetrics;
 import griffon.plugins.db4o.ObjectContainerFactory;
 import griffon.plugins.db4o.ObjectContainerHandler;
 import griffon.plugins.db4o.ObjectContainerStorage;
@@ -57,10 +62,33 @@ public class Db4oModule extends AbstractModule {
             .to(DefaultObjectContainerFactory.class)
             .asSingleton();
 
+        bind(Db4oMetrics.class)
+            .to(InMemoryDb4oMetrics.class)
+            .asSingleton();
+
+        bind(CallbackTrackers.class)
+            .asSingleton();
+
         bind(ObjectContainerHandler.class)
             .to(DefaultObjectContainerHandler.class)
             .asSingleton();
 
+        bind(Db4oBatchWriter.class)
+            .to(DefaultDb4oBatchWriter.class)
+            .asSingleton();
+
+        bind(Db4oBackupService.class)
+            .to(DefaultDb4oBackupService.class)
+            .asSingleton();
+
+        bind(Db4oDefragmentService.class)
+            .to(DefaultDb4oDefragmentService.class)
+            .asSingleton();
+
+        bind(Db4oBulkService.class)
+            .to(DefaultDb4oBulkService.class)
+            .asSingleton();
+
         bind(GriffonAddon.class)
             .to(Db4oAddon.class)
             .asSingleton();
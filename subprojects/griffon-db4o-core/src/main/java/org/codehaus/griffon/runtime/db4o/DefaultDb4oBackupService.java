@@ -0,0 +1,209 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.io.FileStorage;
+import griffon.core.GriffonApplication;
+import griffon.plugins.db4o.Db4oBackupService;
+import griffon.plugins.db4o.ObjectContainerFactory;
+import griffon.plugins.db4o.ObjectContainerHandler;
+import griffon.plugins.db4o.ObjectContainerStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Backups run one at a time on a single background thread. db4o copies the container in small chunks, holding
+ * the container's lock for each of them, and offers no way to pace that copy. Callbacks get their turn in between
+ * chunks. Backups keep the dataSource busy but don't count as using it, thus idle containers are still closed.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDb4oBackupService extends AbstractMaintenanceService<File> implements Db4oBackupService {
+    static final String KEY_BACKUP_DIRECTORY = "backup_directory";
+    static final String KEY_BACKUP_INTERVAL = "backup_interval";
+    static final String KEY_BACKUP_RETENTION = "backup_retention";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDb4oBackupService.class);
+    private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
+    private static final String DEFAULT_BACKUP_DIRECTORY = "backups";
+    private static final int DEFAULT_BACKUP_RETENTION = 7;
+    private static final String TIMESTAMP_FORMAT = "yyyyMMdd-HHmmssSSS";
+    private static final String SUFFIX = ".yarv";
+
+    private final ObjectContainerFactory objectContainerFactory;
+    private final ObjectContainerHandler objectContainerHandler;
+    private final ObjectContainerStorage objectContainerStorage;
+    private final CallbackTrackers callbackTrackers;
+    private final GriffonApplication application;
+    private long lastTimestamp;
+
+    @Inject
+    public DefaultDb4oBackupService(@Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerHandler objectContainerHandler, @Nonnull ObjectContainerStorage objectContainerStorage, @Nonnull CallbackTrackers callbackTrackers, @Nonnull GriffonApplication application) {
+        super("Backup service", "db4o-backup");
+        this.objectContainerFactory = requireNonNull(objectContainerFactory, "Argument 'objectContainerFactory' must not be null");
+        this.objectContainerHandler = requireNonNull(objectContainerHandler, "Argument 'objectContainerHandler' must not be null");
+        this.objectContainerStorage = requireNonNull(objectContainerStorage, "Argument 'objectContainerStorage' must not be null");
+        this.callbackTrackers = requireNonNull(callbackTrackers, "Argument 'callbackTrackers' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    /**
+     * Schedules periodic backups of every dataSource with a {@code backup_interval}.
+     */
+    public void start() {
+        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+            long interval = getConfigValueAsLong(config, KEY_BACKUP_INTERVAL, 0L);
+            if (interval < 0) {
+                throw invalid(dataSourceName, KEY_BACKUP_INTERVAL, interval, "must not be negative");
+            } else if (interval > 0) {
+                schedule(() -> scheduledBackup(dataSourceName), interval);
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<File> backup() {
+        return backup(DefaultObjectContainerFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<File> backup(@Nonnull String dataSourceName) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        if (config.isEmpty()) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' is not configured.");
+        }
+        if (ObjectContainerClientServer.isClient(dataSourceName, config)) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' is a client. Back up its server instead.");
+        }
+        return submit(dataSourceName);
+    }
+
+    @Nonnull
+    @Override
+    public List<File> getBackups() {
+        return getBackups(DefaultObjectContainerFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public List<File> getBackups(@Nonnull String dataSourceName) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        Pattern pattern = Pattern.compile(Pattern.quote(dataSourceName) + "-\\d{8}-\\d{9}" + Pattern.quote(SUFFIX));
+        File[] files = resolveDirectory(objectContainerFactory.getConfigurationFor(dataSourceName))
+            .listFiles((dir, name) -> pattern.matcher(name).matches());
+
+        // timestamps sort lexicographically, newest first
+        List<File> backups = files != null ? new ArrayList<>(asList(files)) : new ArrayList<>();
+        backups.sort((a, b) -> b.getName().compareTo(a.getName()));
+        return backups;
+    }
+
+    private void scheduledBackup(@Nonnull String dataSourceName) {
+        // a closed container has not changed since its last backup
+        if (objectContainerStorage.get(dataSourceName) == null) {
+            return;
+        }
+        try {
+            perform(dataSourceName);
+        } catch (RuntimeException e) {
+            // reported by perform
+        }
+    }
+
+    @Nonnull
+    @Override
+    protected File perform(@Nonnull String dataSourceName) {
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        File directory = resolveDirectory(config);
+        // backups run on a single thread; names stay unique even when two of them start within the same millisecond
+        lastTimestamp = Math.max(System.currentTimeMillis(), lastTimestamp + 1);
+        File target = new File(directory, dataSourceName + "-" + new SimpleDateFormat(TIMESTAMP_FORMAT).format(new Date(lastTimestamp)) + SUFFIX);
+        File partial = new File(target.getPath() + ".part");
+
+        event("Db4oBackupStart", asList(dataSourceName, target));
+        long start = System.nanoTime();
+        int retention = DEFAULT_BACKUP_RETENTION;
+        try {
+            retention = getConfigValueAsInt(config, KEY_BACKUP_RETENTION, DEFAULT_BACKUP_RETENTION);
+            if (retention < 1) {
+                throw invalid(dataSourceName, KEY_BACKUP_RETENTION, retention, "must be greater than zero");
+            }
+
+            directory.mkdirs();
+            partial.delete();
+
+            LOG.debug("Backing up objectContainer '{}' into {}", dataSourceName, target);
+            callbackTrackers.runMaintenance(dataSourceName, () ->
+                objectContainerHandler.withDb4o(dataSourceName, (name, objectContainer) -> {
+                    objectContainer.ext().backup(new FileStorage(), partial.getAbsolutePath());
+                    return null;
+                }));
+            Files.move(partial.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            partial.delete();
+            LOG.error("Could not back up objectContainer '{}' into {}", dataSourceName, target, e);
+            event("Db4oBackupFailure", asList(dataSourceName, target, e));
+            throw e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException("Could not back up objectContainer '" + dataSourceName + "'", e);
+        }
+
+        List<File> backups = getBackups(dataSourceName);
+        for (File obsolete : backups.subList(Math.min(retention, backups.size()), backups.size())) {
+            LOG.debug("Removing backup {} of objectContainer '{}'", obsolete, dataSourceName);
+            obsolete.delete();
+        }
+
+        LOG.info("Backed up objectContainer '{}' into {} in {}ms", dataSourceName, target, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        event("Db4oBackupEnd", asList(dataSourceName, target));
+        return target;
+    }
+
+    @Nonnull
+    private File resolveDirectory(@Nonnull Map<String, Object> config) {
+        File directory = new File(getConfigValueAsString(config, KEY_BACKUP_DIRECTORY, DEFAULT_BACKUP_DIRECTORY));
+        return directory.isAbsolute() ? directory : new File(System.getProperty("user.dir"), directory.getPath());
+    }
+
+    private void event(@Nonnull String name, @Nonnull List<?> args) {
+        application.getEventRouter().publishEvent(name, args);
+    }
+}
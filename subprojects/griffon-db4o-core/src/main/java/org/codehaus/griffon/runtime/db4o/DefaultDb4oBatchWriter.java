@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import griffon.plugins.db4o.Db4oBatchWriter;
+import griffon.plugins.db4o.ObjectContainerFactory;
+import griffon.plugins.db4o.ObjectContainerHandler;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class DefaultDb4oBatchWriter implements Db4oBatchWriter {
+    private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
+    private static final String ERROR_OBJECT_NULL = "Argument 'object' must not be null";
+
+    private final ObjectContainerFactory objectContainerFactory;
+    private final ObjectContainerHandler objectContainerHandler;
+    private final ConcurrentMap<String, ObjectContainerBatch> batches = new ConcurrentHashMap<>();
+
+    @Inject
+    public DefaultDb4oBatchWriter(@Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerHandler objectContainerHandler) {
+        this.objectContainerFactory = requireNonNull(objectContainerFactory, "Argument 'objectContainerFactory' must not be null");
+        this.objectContainerHandler = requireNonNull(objectContainerHandler, "Argument 'objectContainerHandler' must not be null");
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> store(@Nonnull Object object) {
+        return store(DefaultObjectContainerFactory.KEY_DEFAULT, object);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> store(@Nonnull String dataSourceName, @Nonnull Object object) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(object, ERROR_OBJECT_NULL);
+        return getBatch(dataSourceName).submit(object, false);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> delete(@Nonnull Object object) {
+        return delete(DefaultObjectContainerFactory.KEY_DEFAULT, object);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<Void> delete(@Nonnull String dataSourceName, @Nonnull Object object) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(object, ERROR_OBJECT_NULL);
+        return getBatch(dataSourceName).submit(object, true);
+    }
+
+    @Override
+    public void close() {
+        close(DefaultObjectContainerFactory.KEY_DEFAULT);
+    }
+
+    @Override
+    public void close(@Nonnull String dataSourceName) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        ObjectContainerBatch batch = batches.remove(dataSourceName);
+        if (batch != null) {
+            batch.close();
+        }
+    }
+
+    @Nonnull
+    private ObjectContainerBatch getBatch(@Nonnull String dataSourceName) {
+        return batches.computeIfAbsent(dataSourceName, name -> {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(name);
+            if (config.isEmpty()) {
+                throw new IllegalArgumentException("DataSource '" + name + "' is not configured.");
+            }
+            // every group would run in a session of its own, which knows nothing of the objects callers hold on to
+            if (getConfigValueAsBoolean(config, DefaultObjectContainerHandler.KEY_SESSION_MODE, false) || ObjectContainerClientServer.isClient(name, config)) {
+                throw new IllegalArgumentException("DataSource '" + name + "' hands out a session per callback. Batch writers are not supported.");
+            }
+            return new ObjectContainerBatch(name, config, callback -> objectContainerHandler.withDb4o(name, callback));
+        });
+    }
+}
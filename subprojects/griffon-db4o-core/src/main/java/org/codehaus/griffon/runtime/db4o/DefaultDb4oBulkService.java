@@ -0,0 +1,237 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.ext.InvalidIDException;
+import com.db4o.query.Query;
+import griffon.plugins.db4o.Db4oBulkService;
+import griffon.plugins.db4o.ExportFormat;
+import griffon.plugins.db4o.ObjectContainerFactory;
+import griffon.plugins.db4o.ObjectContainerHandler;
+import griffon.plugins.db4o.ObjectContainerStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Imports store into a session of their own, or into a connection of their own for {@code client} dataSources,
+ * so that the whole reference cache can be purged after every commit without touching objects held by other
+ * callbacks. The dataSource is kept busy for as long as an import or an export runs.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDb4oBulkService implements Db4oBulkService {
+    static final String KEY_BULK_CHUNK_SIZE = "bulk_chunk_size";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDb4oBulkService.class);
+    private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
+    private static final String ERROR_OBJECTS_NULL = "Argument 'objects' must not be null";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    private final ObjectContainerFactory objectContainerFactory;
+    private final ObjectContainerHandler objectContainerHandler;
+    private final ObjectContainerStorage objectContainerStorage;
+
+    @Inject
+    public DefaultDb4oBulkService(@Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerHandler objectContainerHandler, @Nonnull ObjectContainerStorage objectContainerStorage) {
+        this.objectContainerFactory = requireNonNull(objectContainerFactory, "Argument 'objectContainerFactory' must not be null");
+        this.objectContainerHandler = requireNonNull(objectContainerHandler, "Argument 'objectContainerHandler' must not be null");
+        this.objectContainerStorage = requireNonNull(objectContainerStorage, "Argument 'objectContainerStorage' must not be null");
+    }
+
+    @Override
+    public long importObjects(@Nonnull Iterator<?> objects) {
+        return importObjects(DefaultObjectContainerFactory.KEY_DEFAULT, objects);
+    }
+
+    @Override
+    public long importObjects(@Nonnull String dataSourceName, @Nonnull Iterator<?> objects) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(objects, ERROR_OBJECTS_NULL);
+        return doImport(dataSourceName, getChunkSize(dataSourceName), objects);
+    }
+
+    @Override
+    public long importObjects(@Nonnull Stream<?> objects) {
+        return importObjects(DefaultObjectContainerFactory.KEY_DEFAULT, objects);
+    }
+
+    /**
+     * Elements of a parallel stream are produced concurrently and stored by the calling thread.
+     */
+    @Override
+    public long importObjects(@Nonnull String dataSourceName, @Nonnull Stream<?> objects) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(objects, ERROR_OBJECTS_NULL);
+        int chunkSize = getChunkSize(dataSourceName);
+        if (!objects.isParallel()) {
+            return doImport(dataSourceName, chunkSize, objects.iterator());
+        }
+
+        try (BulkImportQueue queue = new BulkImportQueue(objects, chunkSize)) {
+            return doImport(dataSourceName, chunkSize, queue);
+        }
+    }
+
+    @Override
+    public long exportObjects(@Nonnull Class<?> type, @Nonnull Path file, @Nonnull ExportFormat format) {
+        return exportObjects(DefaultObjectContainerFactory.KEY_DEFAULT, type, file, format);
+    }
+
+    /**
+     * Reads from the dataSource's replica, if it has one.
+     */
+    @Override
+    public long exportObjects(@Nonnull String dataSourceName, @Nonnull Class<?> type, @Nonnull Path file, @Nonnull ExportFormat format) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(type, "Argument 'type' must not be null");
+        requireNonNull(file, "Argument 'file' must not be null");
+        requireNonNull(format, "Argument 'format' must not be null");
+        getConfiguration(dataSourceName);
+
+        long start = System.nanoTime();
+        Long count = objectContainerHandler.withDb4oReadOnly(dataSourceName, (name, objectContainer) -> {
+            try (OutputStream output = Files.newOutputStream(file);
+                 ObjectContainerExporter exporter = new ObjectContainerExporter(objectContainer, output, format)) {
+                Query query = objectContainer.query();
+                query.constrain(type);
+                long exported = 0;
+                for (long id : query.execute().ext().getIDs()) {
+                    Object object;
+                    try {
+                        object = objectContainer.ext().getByID(id);
+                    } catch (InvalidIDException e) {
+                        // deleted since the query ran
+                        continue;
+                    }
+                    if (type.isInstance(object)) {
+                        exporter.export(object);
+                        exported++;
+                    }
+                }
+                return exported;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        LOG.info("Exported {} {} objects from objectContainer '{}' to {} in {}ms", count, type.getName(), dataSourceName, file,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return requireNonNull(count);
+    }
+
+    private long doImport(@Nonnull String dataSourceName, int chunkSize, @Nonnull Iterator<?> objects) {
+        Map<String, Object> config = getConfiguration(dataSourceName);
+        if (ObjectContainerReplica.getPrimaryName(config) != null) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' is a replica. Import into its primary instead.");
+        }
+
+        long start = System.nanoTime();
+        Long count = objectContainerHandler.withDb4o(dataSourceName, (name, objectContainer) -> {
+            // clients hand callbacks a pooled connection of their own, there's no need to open yet another one
+            if (ObjectContainerClientServer.isClient(name, config)) {
+                return store(objectContainer, chunkSize, objects);
+            }
+
+            ObjectContainer session = openSession(name);
+            try {
+                return store(session, chunkSize, objects);
+            } finally {
+                session.close();
+            }
+        });
+        LOG.info("Imported {} objects into objectContainer '{}' in {}ms", count, dataSourceName,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return requireNonNull(count);
+    }
+
+    /**
+     * Objects stored by a chunk that fails are rolled back; earlier chunks stay committed.
+     */
+    private static long store(@Nonnull ObjectContainer session, int chunkSize, @Nonnull Iterator<?> objects) {
+        long stored = 0;
+        int pending = 0;
+        try {
+            while (objects.hasNext()) {
+                session.store(requireNonNull(objects.next(), "Imported objects must not be null"));
+                if (++pending == chunkSize) {
+                    commit(session);
+                    stored += pending;
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                commit(session);
+            }
+            return stored + pending;
+        } catch (RuntimeException | Error e) {
+            try {
+                session.rollback();
+            } catch (RuntimeException re) {
+                e.addSuppressed(re);
+            }
+            throw e;
+        }
+    }
+
+    private static void commit(@Nonnull ObjectContainer session) {
+        session.commit();
+        // the session is ours alone, nobody else can hold on to its references
+        session.ext().purge();
+    }
+
+    @Nonnull
+    private ObjectContainer openSession(@Nonnull String dataSourceName) {
+        ObjectContainer objectContainer = objectContainerStorage.get(dataSourceName);
+        if (objectContainer == null) {
+            throw new IllegalStateException("ObjectContainer '" + dataSourceName + "' is not open");
+        }
+        return objectContainer.ext().openSession();
+    }
+
+    private int getChunkSize(@Nonnull String dataSourceName) {
+        int chunkSize = getConfigValueAsInt(getConfiguration(dataSourceName), KEY_BULK_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        if (chunkSize < 1) {
+            throw invalid(dataSourceName, KEY_BULK_CHUNK_SIZE, chunkSize, "must be greater than zero");
+        }
+        return chunkSize;
+    }
+
+    @Nonnull
+    private Map<String, Object> getConfiguration(@Nonnull String dataSourceName) {
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        if (config.isEmpty()) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' is not configured.");
+        }
+        return config;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.defragment.Defragment;
+import com.db4o.defragment.DefragmentConfig;
+import com.db4o.events.CommitEventArgs;
+import com.db4o.events.EventListener4;
+import com.db4o.events.EventRegistry;
+import com.db4o.events.EventRegistryFactory;
+import com.db4o.ext.SystemInfo;
+import griffon.core.GriffonApplication;
+import griffon.plugins.db4o.Db4oDefragmentService;
+import griffon.plugins.db4o.DefragmentResult;
+import griffon.plugins.db4o.ObjectContainerCallback;
+import griffon.plugins.db4o.ObjectContainerFactory;
+import griffon.plugins.db4o.ObjectContainerHandler;
+import griffon.plugins.db4o.ObjectContainerStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.inject.Inject;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Runs defragmentations one at a time on a single background thread. A consistent copy of the live container
+ * is taken with {@code ext().backup()} and compacted while callbacks keep running. Then callbacks are held,
+ * the container is closed, the compacted file takes the place of the original one and the container is opened
+ * again. Should anything have been committed in the meantime the copy is discarded and the run starts over.
+ *
+ * @author Andres Almiray
+ */
+public class DefaultDb4oDefragmentService extends AbstractMaintenanceService<DefragmentResult> implements Db4oDefragmentService {
+    static final String KEY_DEFRAGMENT_INTERVAL = "defragment_interval";
+    static final String KEY_DEFRAGMENT_FREESPACE_RATIO = "defragment_freespace_ratio";
+    static final String KEY_DEFRAGMENT_SWAP_TIMEOUT = "defragment_swap_timeout";
+
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDb4oDefragmentService.class);
+    private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
+    private static final long DEFAULT_CHECK_INTERVAL = 60000L;
+    private static final long DEFAULT_SWAP_TIMEOUT = 5000L;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final ObjectContainerFactory objectContainerFactory;
+    private final ObjectContainerHandler objectContainerHandler;
+    private final ObjectContainerStorage objectContainerStorage;
+    private final CallbackTrackers callbackTrackers;
+    private final GriffonApplication application;
+
+    @Inject
+    public DefaultDb4oDefragmentService(@Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerHandler objectContainerHandler, @Nonnull ObjectContainerStorage objectContainerStorage, @Nonnull CallbackTrackers callbackTrackers, @Nonnull GriffonApplication application) {
+        super("Defragment service", "db4o-defragment");
+        this.objectContainerFactory = requireNonNull(objectContainerFactory, "Argument 'objectContainerFactory' must not be null");
+        this.objectContainerHandler = requireNonNull(objectContainerHandler, "Argument 'objectContainerHandler' must not be null");
+        this.objectContainerStorage = requireNonNull(objectContainerStorage, "Argument 'objectContainerStorage' must not be null");
+        this.callbackTrackers = requireNonNull(callbackTrackers, "Argument 'callbackTrackers' must not be null");
+        this.application = requireNonNull(application, "Argument 'application' must not be null");
+    }
+
+    /**
+     * Schedules checks for every dataSource with a {@code defragment_interval} or a {@code defragment_freespace_ratio}.
+     */
+    public void start() {
+        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+            long interval = getConfigValueAsLong(config, KEY_DEFRAGMENT_INTERVAL, 0L);
+            double ratio = getFreespaceRatio(dataSourceName, config);
+            if (interval < 0) {
+                throw invalid(dataSourceName, KEY_DEFRAGMENT_INTERVAL, interval, "must not be negative");
+            }
+            if (interval == 0 && ratio == 0d) {
+                continue;
+            }
+
+            long period = interval > 0 ? interval : DEFAULT_CHECK_INTERVAL;
+            schedule(() -> scheduledDefragment(dataSourceName, ratio), period);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<DefragmentResult> defragment() {
+        return defragment(DefaultObjectContainerFactory.KEY_DEFAULT);
+    }
+
+    @Nonnull
+    @Override
+    public CompletableFuture<DefragmentResult> defragment(@Nonnull String dataSourceName) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        if (config.isEmpty()) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' is not configured.");
+        }
+        if (!ObjectContainerClientServer.TYPE_EMBEDDED.equals(ObjectContainerClientServer.resolveType(dataSourceName, config)) ||
+            EmbeddedConfigurationSupport.STORAGE_MEMORY.equals(getConfigValueAsString(config, EmbeddedConfigurationSupport.KEY_STORAGE, "").trim().toLowerCase()) ||
+            getConfigValueAsBoolean(config, EmbeddedConfigurationSupport.KEY_READ_ONLY, false) ||
+            ObjectContainerReplica.getPrimaryName(config) != null) {
+            throw new IllegalArgumentException("DataSource '" + dataSourceName + "' cannot be defragmented. Only writable embedded files can.");
+        }
+
+        return submit(dataSourceName);
+    }
+
+    private void scheduledDefragment(@Nonnull String dataSourceName, double ratio) {
+        ObjectContainer objectContainer = objectContainerStorage.get(dataSourceName);
+        if (objectContainer == null || objectContainer.ext().isClosed()) {
+            return;
+        }
+        if (ratio > 0d) {
+            SystemInfo systemInfo = objectContainer.ext().systemInfo();
+            if (systemInfo.totalSize() == 0 || (double) systemInfo.freespaceSize() / systemInfo.totalSize() < ratio) {
+                return;
+            }
+        }
+        try {
+            perform(dataSourceName);
+        } catch (RuntimeException e) {
+            // reported by perform
+        }
+    }
+
+    @Nonnull
+    @Override
+    protected DefragmentResult perform(@Nonnull String dataSourceName) {
+        event("Db4oDefragmentStart", asList(dataSourceName));
+        long start = System.nanoTime();
+        try {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+            long swapTimeout = getConfigValueAsLong(config, KEY_DEFRAGMENT_SWAP_TIMEOUT, DEFAULT_SWAP_TIMEOUT);
+            if (swapTimeout < 1) {
+                throw invalid(dataSourceName, KEY_DEFRAGMENT_SWAP_TIMEOUT, swapTimeout, "must be greater than zero");
+            }
+
+            File dbfile = DefaultObjectContainerFactory.resolveDBFile(config);
+            File compacted = new File(dbfile.getPath() + ".defrag");
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+                DefragmentResult result = attempt(dataSourceName, config, dbfile, compacted, swapTimeout, start);
+                if (result != null) {
+                    LOG.info("Defragmented objectContainer '{}' in {}ms, reclaiming {} bytes. Callbacks were held for {}ms",
+                        dataSourceName, result.getElapsedTime(), result.getBytesReclaimed(), result.getSwapTime());
+                    event("Db4oDefragmentEnd", asList(dataSourceName, result));
+                    return result;
+                }
+                LOG.debug("ObjectContainer '{}' changed while being defragmented. Starting over ({}/{})", dataSourceName, attempt, MAX_ATTEMPTS);
+            }
+            throw new IllegalStateException("ObjectContainer '" + dataSourceName + "' kept changing while being defragmented");
+        } catch (RuntimeException e) {
+            LOG.error("Could not defragment objectContainer '{}'", dataSourceName, e);
+            event("Db4oDefragmentFailure", asList(dataSourceName, e));
+            throw e;
+        }
+    }
+
+    /**
+     * @return the outcome, or {@code null} if the copy went stale before the files could be swapped
+     */
+    private DefragmentResult attempt(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull File dbfile, @Nonnull File compacted, long swapTimeout, long start) {
+        File backup = new File(compacted.getPath() + DefragmentConfig.BACKUP_SUFFIX);
+        ObjectContainer[] root = new ObjectContainer[1];
+        AtomicBoolean changed = new AtomicBoolean();
+        EventListener4<CommitEventArgs> listener = (event, args) -> {
+            if (args.added().iterator().moveNext() || args.updated().iterator().moveNext() || args.deleted().iterator().moveNext()) {
+                changed.set(true);
+            }
+        };
+        try {
+            compacted.delete();
+            long sizeBefore = objectContainerHandler.withDb4o(dataSourceName, (ObjectContainerCallback<Long>) (name, objectContainer) -> {
+                // sessions report their commits to the root container
+                root[0] = objectContainerStorage.get(dataSourceName);
+                EventRegistryFactory.forObjectContainer(root[0]).committed().addListener(listener);
+                root[0].ext().backup(compacted.getAbsolutePath());
+                return root[0].ext().systemInfo().totalSize();
+            });
+
+            EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+            EmbeddedConfigurationSupport.applyTo(dataSourceName, config, configuration);
+            DefragmentConfig defragmentConfig = new DefragmentConfig(compacted.getAbsolutePath(), backup.getAbsolutePath());
+            defragmentConfig.db4oConfig(configuration);
+            defragmentConfig.forceBackupDelete(true);
+            Defragment.defrag(defragmentConfig);
+
+            long[] swapTime = {-1L};
+            boolean swapped = callbackTrackers.runExclusively(dataSourceName, swapTimeout, TimeUnit.MILLISECONDS, () -> {
+                if (changed.get() || objectContainerStorage.get(dataSourceName) != root[0]) {
+                    return;
+                }
+                long swapStart = System.nanoTime();
+                objectContainerHandler.closeDb4o(dataSourceName);
+                try {
+                    Files.move(compacted.toPath(), dbfile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                swapTime[0] = System.nanoTime() - swapStart;
+            });
+            if (!swapped || swapTime[0] < 0) {
+                return null;
+            }
+
+            // open the container again right away rather than on the next call
+            long sizeAfter = objectContainerHandler.withDb4o(dataSourceName, (ObjectContainerCallback<Long>) (name, objectContainer) ->
+                objectContainerStorage.get(dataSourceName).ext().systemInfo().totalSize());
+            return new DefragmentResult(dataSourceName, sizeBefore, sizeAfter,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), TimeUnit.NANOSECONDS.toMillis(swapTime[0]));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while defragmenting objectContainer '" + dataSourceName + "'", e);
+        } finally {
+            if (root[0] != null && !root[0].ext().isClosed()) {
+                EventRegistryFactory.forObjectContainer(root[0]).committed().removeListener(listener);
+            }
+            compacted.delete();
+            backup.delete();
+        }
+    }
+
+    private static double getFreespaceRatio(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        Object value = config.get(KEY_DEFRAGMENT_FREESPACE_RATIO);
+        if (value == null) {
+            return 0d;
+        }
+        double ratio;
+        try {
+            ratio = Double.parseDouble(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            throw invalid(dataSourceName, KEY_DEFRAGMENT_FREESPACE_RATIO, value, "must be a number");
+        }
+        if (ratio <= 0d || ratio >= 1d) {
+            throw invalid(dataSourceName, KEY_DEFRAGMENT_FREESPACE_RATIO, value, "must be between 0 and 1, exclusive");
+        }
+        return ratio;
+    }
+
+    private void event(@Nonnull String name, @Nonnull List<?> args) {
+        application.getEventRouter().publishEvent(name, args);
+    }
+}
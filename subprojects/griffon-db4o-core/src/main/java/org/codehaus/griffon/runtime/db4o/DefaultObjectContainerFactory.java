@@ -17,7 +17,10 @@ package org.codehaus.griffon.runtime.db4o;
 
 import com.db4o.Db4oEmbedded;
 import com.db4o.ObjectContainer;
+import com.db4o.ObjectServer;
+import com.db4o.config.CommonConfigurationProvider;
 import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.config.FileConfigurationProvider;
 import griffon.core.Configuration;
 import griffon.core.GriffonApplication;
 import griffon.core.injection.Injector;
@@ -32,6 +35,7 @@ import java.io.File;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
 import static griffon.util.ConfigUtils.getConfigValueAsString;
@@ -46,6 +50,7 @@ public class DefaultObjectContainerFactory extends AbstractObjectFactory<ObjectC
     private static final String ERROR_DATASOURCE_BLANK = "Argument 'dataSourceName' must not be blank";
 
     private final Set<String> dataSourceNames = new LinkedHashSet<>();
+    private final Map<String, ObjectServer> servers = new ConcurrentHashMap<>();
 
     @Inject
     private Injector injector;
@@ -59,6 +64,15 @@ public class DefaultObjectContainerFactory extends AbstractObjectFactory<ObjectC
             Map<String, Object> db4os = (Map<String, Object>) configuration.get(getPluralKey());
             dataSourceNames.addAll(db4os.keySet());
         }
+
+        // fail fast on invalid tuning settings instead of waiting for the first connection
+        for (String dataSourceName : dataSourceNames) {
+            Map<String, Object> config = narrowConfig(dataSourceName);
+            if (!config.isEmpty()) {
+                ObjectContainerClientServer.resolveType(dataSourceName, config);
+                EmbeddedConfigurationSupport.applyTo(dataSourceName, config, Db4oEmbedded.newConfiguration());
+            }
+        }
     }
 
     @Nonnull
@@ -125,32 +139,76 @@ public class DefaultObjectContainerFactory extends AbstractObjectFactory<ObjectC
             ((Db4oBootstrap) o).destroy(name, instance);
         }
 
-        destroyObjectContainer(config, instance);
+        destroyObjectContainer(name, config, instance);
 
         event("Db4oDisconnectEnd", asList(name, config));
     }
 
     @Nonnull
     private ObjectContainer createObjectContainer(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        switch (ObjectContainerClientServer.resolveType(name, config)) {
+            case ObjectContainerClientServer.TYPE_SERVER:
+                return createServerObjectContainer(config, name);
+            case ObjectContainerClientServer.TYPE_CLIENT:
+                return createClientObjectContainer(config, name);
+            default:
+                return createEmbeddedObjectContainer(config, name);
+        }
+    }
+
+    @Nonnull
+    private ObjectContainer createEmbeddedObjectContainer(@Nonnull Map<String, Object> config, @Nonnull String name) {
         File dbfile = resolveDBFile(config);
         EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+        EmbeddedConfigurationSupport.applyTo(name, config, configuration, injector);
+        IndexReport indexReport = IndexReport.install(name, configuration.common());
+        event("Db4oConfigurationSetup", asList(name, config, configuration));
+        ObjectContainer objectContainer = Db4oEmbedded.openFile(configuration, dbfile.getAbsolutePath());
+        indexReport.opened(objectContainer, EmbeddedConfigurationSupport.resolveIndexes(name, config));
+        return objectContainer;
+    }
+
+    @Nonnull
+    private <C extends FileConfigurationProvider & CommonConfigurationProvider> ObjectContainer createServerObjectContainer(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        File dbfile = resolveDBFile(config);
+        C configuration = ObjectContainerClientServer.newServerConfiguration(name);
+        EmbeddedConfigurationSupport.applyTo(name, config, configuration, injector);
+        IndexReport indexReport = IndexReport.install(name, configuration.common());
+        event("Db4oConfigurationSetup", asList(name, config, configuration));
+        ObjectServer server = ObjectContainerClientServer.openServer(name, config, configuration, dbfile);
+        servers.put(name, server);
+
+        // callbacks on the server side go through an in-process client
+        ObjectContainer objectContainer = server.openClient();
+        indexReport.opened(server.ext().objectContainer(), EmbeddedConfigurationSupport.resolveIndexes(name, config));
+        return objectContainer;
+    }
+
+    @Nonnull
+    private ObjectContainer createClientObjectContainer(@Nonnull Map<String, Object> config, @Nonnull String name) {
+        CommonConfigurationProvider configuration = ObjectContainerClientServer.newClientConfiguration(name, config);
         event("Db4oConfigurationSetup", asList(name, config, configuration));
-        return Db4oEmbedded.openFile(configuration, dbfile.getAbsolutePath());
+        return ObjectContainerClientServer.openClient(name, config, configuration);
     }
 
-    private void destroyObjectContainer(@Nonnull Map<String, Object> config, @Nonnull ObjectContainer container) {
+    private void destroyObjectContainer(@Nonnull String name, @Nonnull Map<String, Object> config, @Nonnull ObjectContainer container) {
         container.close();
 
+        ObjectServer server = servers.remove(name);
+        if (server != null) {
+            server.close();
+        }
+
         boolean delete = getConfigValueAsBoolean(config, "delete", false);
 
-        if (delete) {
+        if (delete && !ObjectContainerClientServer.isClient(name, config)) {
             File dbfile = resolveDBFile(config);
             dbfile.delete();
         }
     }
 
     @Nonnull
-    private File resolveDBFile(@Nonnull Map<String, Object> config) {
+    static File resolveDBFile(@Nonnull Map<String, Object> config) {
         String dbfileName = getConfigValueAsString(config, "name", "db.yarv");
         File dbfile = new File(dbfileName);
         if (!dbfile.isAbsolute()) {
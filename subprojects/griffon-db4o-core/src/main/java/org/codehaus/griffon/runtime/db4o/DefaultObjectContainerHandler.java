@@ -16,19 +16,56 @@
 package org.codehaus.griffon.runtime.db4o;
 
 import com.db4o.ObjectContainer;
+import com.db4o.ext.DatabaseClosedException;
+import com.db4o.ext.DatabaseFileLockedException;
+import com.db4o.ext.InvalidIDException;
+import com.db4o.internal.InternalObjectContainer;
+import com.db4o.internal.Transaction;
+import com.db4o.query.Evaluation;
+import com.db4o.query.Predicate;
+import com.db4o.query.Query;
+import griffon.core.Configuration;
+import griffon.plugins.db4o.ActivationProfile;
+import griffon.plugins.db4o.Db4oMetrics;
 import griffon.plugins.db4o.ObjectContainerCallback;
 import griffon.plugins.db4o.ObjectContainerFactory;
 import griffon.plugins.db4o.ObjectContainerHandler;
 import griffon.plugins.db4o.ObjectContainerStorage;
+import griffon.plugins.db4o.ids.LongIdMap;
+import griffon.plugins.db4o.ids.LongIdSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
 import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Arrays.asList;
 import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
 
 /**
  * @author Andres Almiray
@@ -38,14 +75,65 @@ public class DefaultObjectContainerHandler implements ObjectContainerHandler {
     private static final String ERROR_DATASOURCE_NAME_BLANK = "Argument 'dataSourceName' must not be blank";
     private static final String ERROR_OBJECT_CONTAINER_NULL = "Argument 'objectContainer' must not be null";
     private static final String ERROR_CALLBACK_NULL = "Argument 'callback' must not be null";
+    static final String KEY_SESSION_MODE = "session_mode";
+    private static final String KEY_SESSION_POOL_SIZE = "session_pool_size";
+    private static final String KEY_IDLE_TIMEOUT = "idle_timeout";
+    private static final String KEY_DELETE = "delete";
+    private static final String KEY_MAX_OPEN_CONTAINERS = "max_open_containers";
+    private static final String KEY_TRANSACTION_RETRIES = "transaction_retries";
+    private static final String KEY_TRANSACTION_RETRY_DELAY = "transaction_retry_delay";
+    private static final int DEFAULT_ACTIVATION_DEPTH = 5;
+    private static final int DEFAULT_TRANSACTION_RETRIES = 3;
+    private static final long DEFAULT_TRANSACTION_RETRY_DELAY = 50L;
+    private static final int MAX_RETRY_SHIFT = 10;
+    private static final long MIN_SWEEP_DELAY = 50L;
 
     private final ObjectContainerFactory objectContainerFactory;
     private final ObjectContainerStorage objectContainerStorage;
+    private final Db4oMetrics db4oMetrics;
+    private final CallbackTrackers callbackTrackers;
+    private final ConcurrentMap<String, FutureTask<ObjectContainer>> pendingObjectContainers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> sessionModes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ObjectContainerSessionPool> sessionPools = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ThreadPoolExecutor> asyncExecutors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<CallbackInstrumentation>> instrumentations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> idleTimeouts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> evictables = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<String>> replicaNames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<String>> primaryNames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ObjectContainerReplica> replicas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Optional<ObjectContainerQueryCache>> queryCaches = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TransactionTracker> transactionTrackers = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor evictionScheduler;
+    private final AtomicBoolean sweepScheduled = new AtomicBoolean();
+    private final int maxOpenContainers;
 
     @Inject
-    public DefaultObjectContainerHandler(@Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerStorage objectContainerStorage) {
+    public DefaultObjectContainerHandler(@Nonnull @Named("db4o") Configuration configuration, @Nonnull ObjectContainerFactory objectContainerFactory, @Nonnull ObjectContainerStorage objectContainerStorage, @Nonnull Db4oMetrics db4oMetrics, @Nonnull CallbackTrackers callbackTrackers) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
         this.objectContainerFactory = requireNonNull(objectContainerFactory, "Argument 'objectContainerFactory' must not be null");
         this.objectContainerStorage = requireNonNull(objectContainerStorage, "Argument 'objectContainerStorage' must not be null");
+        this.db4oMetrics = requireNonNull(db4oMetrics, "Argument 'db4oMetrics' must not be null");
+        this.callbackTrackers = requireNonNull(callbackTrackers, "Argument 'callbackTrackers' must not be null");
+
+        this.maxOpenContainers = configuration.getAsInt(KEY_MAX_OPEN_CONTAINERS, 0);
+        if (maxOpenContainers < 0) {
+            throw new IllegalArgumentException("Invalid value '" + maxOpenContainers + "' for '" + KEY_MAX_OPEN_CONTAINERS + "': must not be negative");
+        }
+
+        // the scheduler thread only lives while there are idle containers to look after
+        this.evictionScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "db4o-eviction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.evictionScheduler.setKeepAliveTime(1L, TimeUnit.SECONDS);
+        this.evictionScheduler.allowCoreThreadTimeOut(true);
+
+        // fail fast on idle timeouts that would throw data away
+        for (String dataSourceName : objectContainerFactory.getDataSourceNames()) {
+            getIdleTimeout(dataSourceName);
+        }
     }
 
     @Nullable
@@ -60,8 +148,468 @@ public class DefaultObjectContainerHandler implements ObjectContainerHandler {
         requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
         requireNonNull(callback, ERROR_CALLBACK_NULL);
 
-        ObjectContainer objectContainer = getObjectContainer(dataSourceName);
-        return doWithObjectContainer(dataSourceName, objectContainer, callback);
+        return withDb4o(dataSourceName, null, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withDb4oActivation(@Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback) {
+        return withDb4oActivation(DefaultObjectContainerFactory.KEY_DEFAULT, activationProfile, callback);
+    }
+
+    /**
+     * The profile applies to activations made by the calling thread on the root container, or on any of its
+     * sessions, until the callback returns.
+     */
+    @Nullable
+    @Override
+    public <R> R withDb4oActivation(@Nonnull String dataSourceName, @Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(activationProfile, "Argument 'activationProfile' must not be null");
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        return withDb4o(dataSourceName, activationProfile, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withDb4oReadOnly(@Nonnull ObjectContainerCallback<R> callback) {
+        return withDb4oReadOnly(DefaultObjectContainerFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withDb4oReadOnly(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        // dataSources without a replica serve reads themselves
+        return withDb4o(getReplicaName(dataSourceName).orElse(dataSourceName), callback);
+    }
+
+    @Nullable
+    @Override
+    public <R> R withDb4oTransaction(@Nonnull ObjectContainerCallback<R> callback) {
+        return withDb4oTransaction(DefaultObjectContainerFactory.KEY_DEFAULT, callback);
+    }
+
+    /**
+     * Runs the callback in a pooled session of its own, whether {@code session_mode} is enabled or not, so that
+     * its commit or rollback never touches changes other callers have yet to commit. The session knows nothing of
+     * objects loaded by other callbacks, thus storing one of those inserts a duplicate. Runs it again, after a
+     * growing delay, when the container turns out to be closed or its file locked, up to
+     * {@code transaction_retries} times.
+     */
+    @Nullable
+    @Override
+    public <R> R withDb4oTransaction(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        int retries = getConfigValueAsInt(config, KEY_TRANSACTION_RETRIES, DEFAULT_TRANSACTION_RETRIES);
+        if (retries < 0) {
+            throw invalid(dataSourceName, KEY_TRANSACTION_RETRIES, retries, "must not be negative");
+        }
+        long retryDelay = getConfigValueAsLong(config, KEY_TRANSACTION_RETRY_DELAY, DEFAULT_TRANSACTION_RETRY_DELAY);
+        if (retryDelay < 0) {
+            throw invalid(dataSourceName, KEY_TRANSACTION_RETRY_DELAY, retryDelay, "must not be negative");
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return runInTransaction(dataSourceName, callback);
+            } catch (DatabaseClosedException | DatabaseFileLockedException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+
+                // exponential backoff with jitter, so that contending callers don't retry in lockstep
+                long delay = (retryDelay << Math.min(attempt, MAX_RETRY_SHIFT)) + ThreadLocalRandom.current().nextLong(retryDelay + 1);
+                LOG.debug("Retrying transaction on objectContainer '{}' in {}ms after {}", dataSourceName, delay, e.toString());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    e.addSuppressed(ie);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withDb4oAsync(@Nonnull ObjectContainerCallback<R> callback) {
+        return withDb4oAsync(DefaultObjectContainerFactory.KEY_DEFAULT, callback);
+    }
+
+    @Nonnull
+    @Override
+    public <R> CompletableFuture<R> withDb4oAsync(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(callback, ERROR_CALLBACK_NULL);
+
+        // a full queue throws RejectedExecutionException right away, letting callers apply back-pressure
+        return ObjectContainerExecutors.submit(getAsyncExecutor(dataSourceName), () -> withDb4o(dataSourceName, callback));
+    }
+
+    @Nonnull
+    @Override
+    public <T> Stream<T> streamQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize) {
+        return streamQuery(DefaultObjectContainerFactory.KEY_DEFAULT, type, predicate, pageSize);
+    }
+
+    /**
+     * The returned stream keeps the dataSource busy, and holds on to a session if the dataSource hands out
+     * sessions, until its results run out, it fails or it is closed, whichever comes first.
+     */
+    @Nonnull
+    @Override
+    public <T> Stream<T> streamQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(type, "Argument 'type' must not be null");
+        requireNonNull(predicate, "Argument 'predicate' must not be null");
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Argument 'pageSize' must be greater than zero");
+        }
+
+        // the stream may well be closed by another thread than the one that opened it
+        Runnable release = getCallbackTracker(dataSourceName).enterDetached();
+        try {
+            ObjectContainer objectContainer;
+            ObjectContainerReplica replica = getReplica(dataSourceName);
+            if (replica != null) {
+                ObjectContainerReplica.Snapshot snapshot = replica.acquire();
+                objectContainer = snapshot.getObjectContainer();
+                release = andThen(snapshot::release, release);
+            } else if (isSessionMode(dataSourceName)) {
+                ObjectContainerSessionPool sessionPool = getSessionPool(dataSourceName, getObjectContainer(dataSourceName));
+                ObjectContainer session = sessionPool.borrow();
+                objectContainer = session;
+                release = andThen(() -> sessionPool.release(session), release);
+            } else {
+                objectContainer = getObjectContainer(dataSourceName);
+            }
+
+            LOG.debug("Streaming {} results from objectContainer '{}'", type.getName(), dataSourceName);
+            long[] ids = queryIds(objectContainer, type, predicate);
+            QueryResultSpliterator<T> spliterator = new QueryResultSpliterator<>(objectContainer, type, ids, pageSize, getActivationDepth(dataSourceName), release);
+            // short-circuiting operations leave the results unfinished, closing the stream takes care of those
+            return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+        } catch (RuntimeException | Error e) {
+            release.run();
+            throw e;
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <T> List<T> cachedQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+        return cachedQuery(DefaultObjectContainerFactory.KEY_DEFAULT, type, predicate);
+    }
+
+    /**
+     * IDs are looked up or, on a miss, gathered by running the query in a session of its own so that uncommitted
+     * changes never make it into the cache. The matching objects are then fetched and activated by the container
+     * the dataSource would hand to a callback. Cached IDs outlive changes to objects of other types than the
+     * queried one, even those the predicate looks at.
+     */
+    @Nonnull
+    @Override
+    public <T> List<T> cachedQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(type, "Argument 'type' must not be null");
+        requireNonNull(predicate, "Argument 'predicate' must not be null");
+
+        Optional<ObjectContainerQueryCache> queryCache = queryCaches.computeIfAbsent(dataSourceName, this::createQueryCache);
+        List<T> results = withDb4o(dataSourceName, (name, objectContainer) -> {
+            long[] ids;
+            if (queryCache.isPresent()) {
+                ObjectContainer root = getObjectContainer(name);
+                ids = queryCache.get().get(root, type, predicate, () -> {
+                    ObjectContainer session = root.ext().openSession();
+                    try {
+                        return queryIds(session, type, predicate);
+                    } finally {
+                        session.close();
+                    }
+                });
+            } else {
+                ids = queryIds(objectContainer, type, predicate);
+            }
+
+            int activationDepth = getActivationDepth(name);
+            List<T> objects = new ArrayList<>(ids.length);
+            for (long id : ids) {
+                Object object = getByID(objectContainer, id);
+                if (type.isInstance(object)) {
+                    objectContainer.activate(object, activationDepth);
+                    objects.add(type.cast(object));
+                }
+            }
+            return objects;
+        });
+        return requireNonNull(results);
+    }
+
+    @Nonnull
+    @Override
+    public <T> LongIdSet queryIDs(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+        return queryIDs(DefaultObjectContainerFactory.KEY_DEFAULT, type, predicate);
+    }
+
+    @Nonnull
+    @Override
+    public <T> LongIdSet queryIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(type, "Argument 'type' must not be null");
+        requireNonNull(predicate, "Argument 'predicate' must not be null");
+
+        LongIdSet ids = withDb4o(dataSourceName, (name, objectContainer) -> LongIdSet.of(queryIds(objectContainer, type, predicate)));
+        return requireNonNull(ids);
+    }
+
+    @Nonnull
+    @Override
+    public <T> LongIdMap<T> getByIDs(@Nonnull Class<T> type, @Nonnull LongIdSet ids) {
+        return getByIDs(DefaultObjectContainerFactory.KEY_DEFAULT, type, ids);
+    }
+
+    /**
+     * Objects are activated to the dataSource's {@code activation_depth}. IDs that do not point to an object of the
+     * given type are left out.
+     */
+    @Nonnull
+    @Override
+    public <T> LongIdMap<T> getByIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull LongIdSet ids) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(type, "Argument 'type' must not be null");
+        requireNonNull(ids, "Argument 'ids' must not be null");
+
+        LongIdMap<T> objects = withDb4o(dataSourceName, (name, objectContainer) -> {
+            int activationDepth = getActivationDepth(name);
+            LongIdMap<T> found = new LongIdMap<>(ids.size());
+            ids.forEach(id -> {
+                Object object = getByID(objectContainer, id);
+                if (type.isInstance(object)) {
+                    objectContainer.activate(object, activationDepth);
+                    found.put(id, type.cast(object));
+                }
+            });
+            return found;
+        });
+        return requireNonNull(objects);
+    }
+
+    @Override
+    public int deleteByIDs(@Nonnull LongIdSet ids) {
+        return deleteByIDs(DefaultObjectContainerFactory.KEY_DEFAULT, ids);
+    }
+
+    /**
+     * Deletes the objects in a transaction of its own, committed once all of them are gone and rolled back should
+     * any of them fail to be deleted.
+     *
+     * @return number of objects deleted; IDs of objects that no longer exist are skipped
+     */
+    @Override
+    public int deleteByIDs(@Nonnull String dataSourceName, @Nonnull LongIdSet ids) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(ids, "Argument 'ids' must not be null");
+
+        Integer deleted = withDb4oTransaction(dataSourceName, (name, objectContainer) -> {
+            int[] count = new int[1];
+            ids.forEach(id -> {
+                Object object = getByID(objectContainer, id);
+                if (object != null) {
+                    objectContainer.delete(object);
+                    count[0]++;
+                }
+            });
+            return count[0];
+        });
+        return requireNonNull(deleted);
+    }
+
+    /**
+     * @return statistics of the given dataSource's query cache, or {@code null} if {@code query_cache_size} is
+     * not set
+     */
+    @Nullable
+    public QueryCacheStatistics getQueryCacheStatistics(@Nonnull String dataSourceName) {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        return queryCaches.computeIfAbsent(dataSourceName, this::createQueryCache)
+            .map(ObjectContainerQueryCache::getStatistics)
+            .orElse(null);
+    }
+
+    @Nonnull
+    private static <T> long[] queryIds(@Nonnull ObjectContainer objectContainer, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+        // predicates that declare their extent type run as native queries, which db4o optimizes into indexed SODA queries
+        if (type.isAssignableFrom(predicate.extentType())) {
+            return objectContainer.query(predicate).ext().getIDs();
+        }
+
+        // others, such as Groovy closures, are evaluated against every candidate of the given type
+        Query query = objectContainer.query();
+        query.constrain(type);
+        query.constrain((Evaluation) candidate -> candidate.include(predicate.match(type.cast(candidate.getObject()))));
+        return query.execute().ext().getIDs();
+    }
+
+    /**
+     * @return the object with the given ID, or {@code null} if it has been deleted
+     */
+    @Nullable
+    private static Object getByID(@Nonnull ObjectContainer objectContainer, long id) {
+        try {
+            return objectContainer.ext().getByID(id);
+        } catch (InvalidIDException e) {
+            return null;
+        }
+    }
+
+    private int getActivationDepth(@Nonnull String dataSourceName) {
+        return getConfigValueAsInt(objectContainerFactory.getConfigurationFor(dataSourceName), EmbeddedConfigurationSupport.KEY_ACTIVATION_DEPTH, DEFAULT_ACTIVATION_DEPTH);
+    }
+
+    @Nonnull
+    private static Runnable andThen(@Nonnull Runnable first, @Nonnull Runnable second) {
+        return () -> {
+            try {
+                first.run();
+            } finally {
+                second.run();
+            }
+        };
+    }
+
+    @Nullable
+    private <R> R withDb4o(@Nonnull String dataSourceName, @Nullable ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback) {
+        CallbackTracker callbackTracker = getCallbackTracker(dataSourceName);
+        callbackTracker.enter();
+        try {
+            ObjectContainerReplica replica = getReplica(dataSourceName);
+            if (replica != null) {
+                // snapshots are not instrumented, the profile may as well be applied by the callback handed to them
+                return replica.withSnapshot(activationProfile == null ? callback : (name, snapshot) ->
+                    ProfiledActivationDepthProvider.install(snapshot).apply(snapshot, activationProfile, () -> callback.handle(name, snapshot)));
+            }
+
+            ObjectContainer objectContainer = getObjectContainer(dataSourceName);
+            if (!isSessionMode(dataSourceName)) {
+                return execute(dataSourceName, objectContainer, activationProfile, callback);
+            }
+
+            ObjectContainerSessionPool sessionPool = getSessionPool(dataSourceName, objectContainer);
+            ObjectContainer session = sessionPool.borrow();
+            try {
+                return execute(dataSourceName, session, activationProfile, callback);
+            } finally {
+                sessionPool.release(session);
+            }
+        } finally {
+            callbackTracker.exit();
+        }
+    }
+
+    /**
+     * Applies the profile, if any, around the callback so that it is instrumented as itself.
+     */
+    @Nullable
+    private <R> R execute(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer, @Nullable ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback) {
+        if (activationProfile == null) {
+            return execute(dataSourceName, objectContainer, callback);
+        }
+        return ProfiledActivationDepthProvider.install(objectContainer)
+            .apply(objectContainer, activationProfile, () -> execute(dataSourceName, objectContainer, callback));
+    }
+
+    @Nullable
+    private <R> R execute(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer, @Nonnull ObjectContainerCallback<R> callback) {
+        Optional<CallbackInstrumentation> instrumentation = instrumentations.computeIfAbsent(dataSourceName, this::createInstrumentation);
+        if (!instrumentation.isPresent()) {
+            return doWithObjectContainer(dataSourceName, objectContainer, callback);
+        }
+        return instrumentation.get().execute(objectContainer, callback);
+    }
+
+    @Nullable
+    private <R> R runInTransaction(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+        CallbackTracker callbackTracker = getCallbackTracker(dataSourceName);
+        callbackTracker.enter();
+        try {
+            ObjectContainerReplica replica = getReplica(dataSourceName);
+            if (replica != null) {
+                // snapshots are read-only, there's nothing to commit or roll back
+                return replica.withSnapshot(callback);
+            }
+
+            ObjectContainerSessionPool sessionPool = getSessionPool(dataSourceName, getObjectContainer(dataSourceName));
+            ObjectContainer session = sessionPool.borrow();
+            try {
+                return executeInTransaction(dataSourceName, session, callback);
+            } finally {
+                sessionPool.release(session);
+            }
+        } finally {
+            callbackTracker.exit();
+        }
+    }
+
+    /**
+     * Commits once the callback returns, unless its transaction stored and deleted nothing, and rolls back if it
+     * throws. Clients always commit as their objects' events are raised by the server. So do dataSources with
+     * {@code transparent_persistence}, their modified objects are only stored, and their events raised, by the
+     * commit itself.
+     */
+    @Nullable
+    private <R> R executeInTransaction(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer, @Nonnull ObjectContainerCallback<R> callback) {
+        Transaction transaction = null;
+        TransactionTracker transactionTracker = null;
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        if (objectContainer instanceof InternalObjectContainer && !ObjectContainerClientServer.isClient(dataSourceName, config) &&
+            !getConfigValueAsBoolean(config, EmbeddedConfigurationSupport.KEY_TRANSPARENT_PERSISTENCE, false)) {
+            transaction = ((InternalObjectContainer) objectContainer).transaction();
+            transactionTracker = transactionTrackers.computeIfAbsent(dataSourceName, name -> new TransactionTracker());
+            transactionTracker.attach(transaction.container());
+            transactionTracker.begin(transaction);
+        }
+
+        try {
+            R result = execute(dataSourceName, objectContainer, callback);
+            if (transactionTracker == null || transactionTracker.isDirty(transaction)) {
+                objectContainer.commit();
+            }
+            return result;
+        } catch (RuntimeException | Error e) {
+            if (!objectContainer.ext().isClosed()) {
+                try {
+                    objectContainer.rollback();
+                    if (transactionTracker != null) {
+                        transactionTracker.rolledBack(transaction);
+                    }
+                } catch (RuntimeException re) {
+                    e.addSuppressed(re);
+                }
+            }
+            throw e;
+        } finally {
+            if (transactionTracker != null) {
+                transactionTracker.end(transaction);
+            }
+        }
+    }
+
+    @Nonnull
+    private Optional<CallbackInstrumentation> createInstrumentation(@Nonnull String dataSourceName) {
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        if (!getConfigValueAsBoolean(config, CallbackInstrumentation.KEY_INSTRUMENTED, false)) {
+            return Optional.empty();
+        }
+        long slowThreshold = getConfigValueAsLong(config, CallbackInstrumentation.KEY_SLOW_CALLBACK_THRESHOLD, 0L);
+        return Optional.of(new CallbackInstrumentation(dataSourceName, db4oMetrics, slowThreshold));
     }
 
     @Nullable
@@ -75,6 +623,28 @@ public class DefaultObjectContainerHandler implements ObjectContainerHandler {
         return callback.handle(dataSourceName, objectContainer);
     }
 
+    /**
+     * Stops accepting {@code withDb4oAsync} callbacks for the given dataSource and waits for running
+     * callbacks, queued asynchronous ones included, to finish.
+     *
+     * @return {@code true} if all callbacks finished before the timeout elapsed
+     */
+    public boolean awaitCallbacks(@Nonnull String dataSourceName, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        requireNonBlank(dataSourceName, ERROR_DATASOURCE_NAME_BLANK);
+        requireNonNull(unit, "Argument 'unit' must not be null");
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        ThreadPoolExecutor asyncExecutor = asyncExecutors.remove(dataSourceName);
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            if (!asyncExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+
+        return getCallbackTracker(dataSourceName).awaitIdle(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public void closeDb4o() {
         closeDb4o(DefaultObjectContainerFactory.KEY_DEFAULT);
@@ -82,6 +652,36 @@ public class DefaultObjectContainerHandler implements ObjectContainerHandler {
 
     @Override
     public void closeDb4o(@Nonnull String dataSourceName) {
+        close(dataSourceName, true);
+    }
+
+    /**
+     * @param discardQueued whether queued {@code withDb4oAsync} callbacks should fail rather than open the
+     *                      dataSource again once they run
+     */
+    private void close(@Nonnull String dataSourceName, boolean discardQueued) {
+        Optional<ObjectContainerQueryCache> queryCache = queryCaches.get(dataSourceName);
+        if (queryCache != null) {
+            queryCache.ifPresent(ObjectContainerQueryCache::clear);
+        }
+
+        ObjectContainerReplica replica = replicas.remove(dataSourceName);
+        if (replica != null) {
+            replica.close();
+        }
+
+        if (discardQueued) {
+            ThreadPoolExecutor asyncExecutor = asyncExecutors.remove(dataSourceName);
+            if (asyncExecutor != null) {
+                ObjectContainerExecutors.discard(dataSourceName, asyncExecutor);
+            }
+        }
+
+        ObjectContainerSessionPool sessionPool = sessionPools.remove(dataSourceName);
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+
         ObjectContainer objectContainer = objectContainerStorage.get(dataSourceName);
         if (objectContainer != null) {
             objectContainerFactory.destroy(dataSourceName, objectContainer);
@@ -90,12 +690,275 @@ public class DefaultObjectContainerHandler implements ObjectContainerHandler {
     }
 
     @Nonnull
-    private ObjectContainer getObjectContainer(@Nonnull String dataSourceName) {
+    private ObjectContainer getObjectContainer(@Nonnull final String dataSourceName) {
         ObjectContainer objectContainer = objectContainerStorage.get(dataSourceName);
-        if (objectContainer == null) {
-            objectContainer = objectContainerFactory.create(dataSourceName);
-            objectContainerStorage.set(dataSourceName, objectContainer);
+        if (objectContainer != null) {
+            return objectContainer;
+        }
+
+        // single-flight creation: concurrent callers for the same dataSource wait on
+        // the first in-flight open while other dataSources proceed in parallel
+        FutureTask<ObjectContainer> task = new FutureTask<>(() -> {
+            ObjectContainer container = objectContainerStorage.get(dataSourceName);
+            if (container == null) {
+                evictLeastRecentlyUsed(dataSourceName);
+                container = objectContainerFactory.create(dataSourceName);
+                objectContainerStorage.set(dataSourceName, container);
+                long idleTimeout = getIdleTimeout(dataSourceName);
+                if (idleTimeout > 0) {
+                    scheduleSweep(idleTimeout);
+                }
+            }
+            return container;
+        });
+
+        FutureTask<ObjectContainer> pending = pendingObjectContainers.putIfAbsent(dataSourceName, task);
+        if (pending == null) {
+            pending = task;
+            try {
+                task.run();
+            } finally {
+                pendingObjectContainers.remove(dataSourceName, task);
+            }
+        }
+
+        return awaitObjectContainer(dataSourceName, pending);
+    }
+
+    /**
+     * Makes room for another container when {@code max_open_containers} has been reached by closing the
+     * containers that have gone unused for the longest time. Containers with running or queued callbacks are
+     * skipped, as are those that cannot be reopened as they were, thus the limit may be exceeded while all of
+     * them are busy.
+     */
+    private void evictLeastRecentlyUsed(@Nonnull String dataSourceName) {
+        if (maxOpenContainers < 1) {
+            return;
+        }
+
+        List<String> candidates = new ArrayList<>(asList(objectContainerStorage.getKeys()));
+        candidates.remove(dataSourceName);
+        candidates.removeIf(name -> !isEvictable(name));
+        int excess = candidates.size() + 1 - maxOpenContainers;
+        if (excess < 1) {
+            return;
+        }
+
+        candidates.sort(Comparator.comparingLong(name -> getCallbackTracker(name).getLastUsed()));
+        for (String candidate : candidates) {
+            if (excess < 1) {
+                break;
+            }
+            if (evict(candidate)) {
+                excess--;
+            }
+        }
+        if (excess > 0) {
+            LOG.debug("Opening objectContainer '{}' beyond {} {} as all others are busy", dataSourceName, KEY_MAX_OPEN_CONTAINERS, maxOpenContainers);
+        }
+    }
+
+    private void scheduleSweep(long delay) {
+        if (sweepScheduled.compareAndSet(false, true)) {
+            evictionScheduler.schedule(this::sweep, Math.max(MIN_SWEEP_DELAY, delay), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sweep() {
+        sweepScheduled.set(false);
+        long next = Long.MAX_VALUE;
+        for (String dataSourceName : objectContainerStorage.getKeys()) {
+            long idleTimeout = getIdleTimeout(dataSourceName);
+            if (idleTimeout < 1) {
+                continue;
+            }
+
+            CallbackTracker callbackTracker = getCallbackTracker(dataSourceName);
+            long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - callbackTracker.getLastUsed());
+            if (callbackTracker.getRunning() == 0 && idle >= idleTimeout && evict(dataSourceName)) {
+                continue;
+            }
+            next = Math.min(next, callbackTracker.getRunning() == 0 ? idleTimeout - idle : idleTimeout);
+        }
+        if (next != Long.MAX_VALUE) {
+            scheduleSweep(next);
+        }
+    }
+
+    private boolean evict(@Nonnull String dataSourceName) {
+        CallbackTracker callbackTracker = getCallbackTracker(dataSourceName);
+        if (!callbackTracker.tryClaim()) {
+            return false;
+        }
+        try {
+            // accepted asynchronous callbacks are as good as running ones
+            ThreadPoolExecutor asyncExecutor = asyncExecutors.get(dataSourceName);
+            if (asyncExecutor != null && !asyncExecutor.getQueue().isEmpty()) {
+                return false;
+            }
+
+            // callbacks queued from now on open the container again once they run
+            LOG.debug("Evicting idle objectContainer '{}'", dataSourceName);
+            close(dataSourceName, false);
+            return true;
+        } catch (RuntimeException e) {
+            LOG.warn("Could not evict objectContainer '{}'", dataSourceName, e);
+            return false;
+        } finally {
+            callbackTracker.release();
+        }
+    }
+
+    @Nonnull
+    private Optional<String> getReplicaName(@Nonnull String dataSourceName) {
+        return replicaNames.computeIfAbsent(dataSourceName, name -> {
+            if (ObjectContainerReplica.getPrimaryName(objectContainerFactory.getConfigurationFor(name)) != null) {
+                return Optional.of(name);
+            }
+            for (String candidate : objectContainerFactory.getDataSourceNames()) {
+                if (name.equals(ObjectContainerReplica.getPrimaryName(objectContainerFactory.getConfigurationFor(candidate)))) {
+                    return Optional.of(candidate);
+                }
+            }
+            return Optional.empty();
+        });
+    }
+
+    @Nullable
+    private ObjectContainerReplica getReplica(@Nonnull String dataSourceName) {
+        ObjectContainerReplica replica = replicas.get(dataSourceName);
+        if (replica != null) {
+            return replica;
+        }
+
+        // most dataSources are no replicas, remember that rather than looking at their configuration on every call
+        Optional<String> primaryName = primaryNames.computeIfAbsent(dataSourceName, name ->
+            Optional.ofNullable(ObjectContainerReplica.getPrimaryName(objectContainerFactory.getConfigurationFor(name))));
+        if (!primaryName.isPresent()) {
+            return null;
+        }
+
+        // refreshing a replica is no reason to keep an otherwise idle primary open
+        String primary = primaryName.get();
+        return replicas.computeIfAbsent(dataSourceName, name -> new ObjectContainerReplica(name, objectContainerFactory.getConfigurationFor(name),
+            callback -> callbackTrackers.runMaintenance(primary, () -> withDb4o(primary, callback)),
+            () -> objectContainerStorage.get(primary) != null));
+    }
+
+    @Nonnull
+    private Optional<ObjectContainerQueryCache> createQueryCache(@Nonnull String dataSourceName) {
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        int size = getConfigValueAsInt(config, ObjectContainerQueryCache.KEY_QUERY_CACHE_SIZE, 0);
+        if (size < 0) {
+            throw invalid(dataSourceName, ObjectContainerQueryCache.KEY_QUERY_CACHE_SIZE, size, "must not be negative");
+        } else if (size == 0) {
+            return Optional.empty();
+        }
+
+        // neither commits of other clients nor refreshed snapshots are announced by a committed event
+        if (ObjectContainerClientServer.isClient(dataSourceName, config)) {
+            throw invalid(dataSourceName, ObjectContainerQueryCache.KEY_QUERY_CACHE_SIZE, size, "is not supported by client dataSources");
+        } else if (ObjectContainerReplica.getPrimaryName(config) != null) {
+            throw invalid(dataSourceName, ObjectContainerQueryCache.KEY_QUERY_CACHE_SIZE, size, "is not supported by replicas");
+        }
+        return Optional.of(new ObjectContainerQueryCache(dataSourceName, size));
+    }
+
+    private long getIdleTimeout(@Nonnull String dataSourceName) {
+        return idleTimeouts.computeIfAbsent(dataSourceName, name -> {
+            long idleTimeout = getConfigValueAsLong(objectContainerFactory.getConfigurationFor(name), KEY_IDLE_TIMEOUT, 0L);
+            if (idleTimeout < 0) {
+                throw invalid(name, KEY_IDLE_TIMEOUT, idleTimeout, "must not be negative");
+            } else if (idleTimeout > 0 && !isEvictable(name)) {
+                throw invalid(name, KEY_IDLE_TIMEOUT, idleTimeout, "is not supported by servers and dataSources that lose their data when closed");
+            }
+            return idleTimeout;
+        });
+    }
+
+    /**
+     * @return {@code false} if closing the dataSource throws its data away, i.e. it lives in memory or its file
+     * is deleted on close, in which case it may not be reopened transparently, or if it is a server, whose remote
+     * clients would be disconnected without it ever noticing they were busy
+     */
+    private boolean isEvictable(@Nonnull String dataSourceName) {
+        return evictables.computeIfAbsent(dataSourceName, name -> {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(name);
+            if (ObjectContainerClientServer.TYPE_SERVER.equals(ObjectContainerClientServer.resolveType(name, config))) {
+                return false;
+            }
+            String storage = getConfigValueAsString(config, EmbeddedConfigurationSupport.KEY_STORAGE, "").trim().toLowerCase();
+            return !getConfigValueAsBoolean(config, KEY_DELETE, false) && !EmbeddedConfigurationSupport.STORAGE_MEMORY.equals(storage);
+        });
+    }
+
+    @Nonnull
+    private CallbackTracker getCallbackTracker(@Nonnull String dataSourceName) {
+        return callbackTrackers.get(dataSourceName);
+    }
+
+    private boolean isSessionMode(@Nonnull String dataSourceName) {
+        return sessionModes.computeIfAbsent(dataSourceName, name -> {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(name);
+            // clients always hand out pooled connections, each one with its own transaction
+            return getConfigValueAsBoolean(config, KEY_SESSION_MODE, false) || ObjectContainerClientServer.isClient(name, config);
+        });
+    }
+
+    @Nonnull
+    private ObjectContainerSessionPool getSessionPool(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer) {
+        ObjectContainerSessionPool sessionPool = sessionPools.get(dataSourceName);
+        if (sessionPool != null && sessionPool.getObjectContainer() == objectContainer) {
+            return sessionPool;
+        }
+
+        Map<String, Object> config = objectContainerFactory.getConfigurationFor(dataSourceName);
+        ObjectContainerSessionPool newSessionPool;
+        if (ObjectContainerClientServer.isClient(dataSourceName, config)) {
+            int poolSize = getConfigValueAsInt(config, ObjectContainerClientServer.KEY_CLIENT_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+            newSessionPool = new ObjectContainerSessionPool(dataSourceName, objectContainer, poolSize, () ->
+                ObjectContainerClientServer.openClient(dataSourceName, config));
+        } else {
+            int poolSize = getConfigValueAsInt(config, KEY_SESSION_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+            newSessionPool = new ObjectContainerSessionPool(dataSourceName, objectContainer, poolSize);
+        }
+        return sessionPools.compute(dataSourceName, (name, current) -> {
+            if (current != null && current.getObjectContainer() == objectContainer) {
+                return current;
+            }
+            if (current != null) {
+                current.close();
+            }
+            return newSessionPool;
+        });
+    }
+
+    @Nonnull
+    private ThreadPoolExecutor getAsyncExecutor(@Nonnull String dataSourceName) {
+        return asyncExecutors.computeIfAbsent(dataSourceName, name -> {
+            Map<String, Object> config = objectContainerFactory.getConfigurationFor(name);
+            if (config.isEmpty()) {
+                throw new IllegalArgumentException("DataSource '" + name + "' is not configured.");
+            }
+            return ObjectContainerExecutors.create(name, config);
+        });
+    }
+
+    @Nonnull
+    private static ObjectContainer awaitObjectContainer(@Nonnull String dataSourceName, @Nonnull FutureTask<ObjectContainer> task) {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for objectContainer '" + dataSourceName + "'", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Could not create objectContainer '" + dataSourceName + "'", cause);
         }
-        return objectContainer;
     }
 }
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.config.CommonConfiguration;
+import com.db4o.config.CommonConfigurationProvider;
+import com.db4o.config.ConfigScope;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.config.FileConfiguration;
+import com.db4o.config.FileConfigurationProvider;
+import com.db4o.config.QueryEvaluationMode;
+import com.db4o.io.CachingStorage;
+import com.db4o.io.FileStorage;
+import com.db4o.io.MemoryStorage;
+import com.db4o.io.NonFlushingStorage;
+import com.db4o.io.Storage;
+import com.db4o.ta.DeactivatingRollbackStrategy;
+import com.db4o.ta.RollbackStrategy;
+import com.db4o.ta.TransparentActivationSupport;
+import com.db4o.ta.TransparentPersistenceSupport;
+import griffon.core.injection.Injector;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static griffon.util.AnnotationUtils.named;
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.isBlank;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Maps dataSource configuration keys to db4o {@code EmbeddedConfiguration} settings. Server configurations
+ * share the same file and common settings; client configurations only take the common ones.
+ * Only keys that are present in the configuration are applied; db4o defaults are kept otherwise.
+ *
+ * @author Andres Almiray
+ */
+final class EmbeddedConfigurationSupport {
+    static final String KEY_BLOCK_SIZE = "block_size";
+    static final String KEY_DATABASE_GROWTH_SIZE = "database_growth_size";
+    static final String KEY_FREESPACE = "freespace";
+    static final String KEY_ACTIVATION_DEPTH = "activation_depth";
+    static final String KEY_UPDATE_DEPTH = "update_depth";
+    static final String KEY_WEAK_REFERENCES = "weak_references";
+    static final String KEY_WEAK_REFERENCE_COLLECTION_INTERVAL = "weak_reference_collection_interval";
+    static final String KEY_QUERY_EVALUATION_MODE = "query_evaluation_mode";
+    static final String KEY_GENERATE_UUIDS = "generate_uuids";
+    static final String KEY_GENERATE_COMMIT_TIMESTAMPS = "generate_commit_timestamps";
+    static final String KEY_INDEXES = "indexes";
+    static final String KEY_STORAGE = "storage";
+    static final String KEY_STORAGE_PAGE_COUNT = "storage_page_count";
+    static final String KEY_STORAGE_PAGE_SIZE = "storage_page_size";
+    static final String KEY_STORAGE_NAME = "storage_name";
+    static final String KEY_STORAGE_SEGMENT_SIZE = "storage_segment_size";
+    static final String KEY_LOCK_DATABASE_FILE = "lock_database_file";
+    static final String KEY_READ_ONLY = "read_only";
+    static final String KEY_TRANSPARENT_ACTIVATION = "transparent_activation";
+    static final String KEY_TRANSPARENT_PERSISTENCE = "transparent_persistence";
+    static final String KEY_TRANSPARENT_PERSISTENCE_ROLLBACK = "transparent_persistence_rollback";
+
+    static final String STORAGE_FILE = "file";
+    static final String STORAGE_MEMORY = "memory";
+    static final String STORAGE_CACHING = "caching";
+    static final String STORAGE_NON_FLUSHING = "non_flushing";
+    static final String STORAGE_MAPPED = "mapped";
+    static final String STORAGE_CUSTOM = "custom";
+
+    static final String ROLLBACK_DEACTIVATE = "deactivate";
+    static final String ROLLBACK_NONE = "none";
+
+    private static final int MAX_BLOCK_SIZE = 127;
+    private static final int DEFAULT_PAGE_COUNT = 64;
+    private static final int DEFAULT_PAGE_SIZE = 1024;
+
+    private EmbeddedConfigurationSupport() {
+        // prevent instantiation
+    }
+
+    /**
+     * Validates and applies all tuning keys found in {@code config}. A {@code custom} storage is
+     * validated but not applied as there's no {@code Injector} to resolve it from.
+     *
+     * @throws IllegalArgumentException if a value is out of range or settings contradict each other
+     */
+    static void applyTo(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull EmbeddedConfiguration configuration) {
+        applyTo(dataSourceName, config, configuration, null);
+    }
+
+    /**
+     * Validates and applies all tuning keys found in {@code config}, resolving {@code custom} storages from
+     * the given {@code Injector}.
+     *
+     * @throws IllegalArgumentException if a value is out of range or settings contradict each other
+     */
+    static <C extends FileConfigurationProvider & CommonConfigurationProvider> void applyTo(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull C configuration, @Nullable Injector<?> injector) {
+        requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+
+        Storage storage = createStorage(dataSourceName, config, injector);
+        if (storage != null) {
+            configuration.file().storage(storage);
+        }
+        applyFileSettings(dataSourceName, config, configuration.file());
+        applyCommonSettings(dataSourceName, config, configuration.common());
+        applyIndexes(dataSourceName, config, configuration.common());
+    }
+
+    /**
+     * Validates and applies the keys that affect the object model, such as activation and update depths.
+     *
+     * @throws IllegalArgumentException if a value is out of range or settings contradict each other
+     */
+    static void applyCommonTo(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfigurationProvider configuration) {
+        requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        requireNonNull(config, "Argument 'config' must not be null");
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+
+        applyCommonSettings(dataSourceName, config, configuration.common());
+    }
+
+    /**
+     * Resolves the {@code indexes} block of a dataSource into a map of class names to field names.
+     * Package segments may be nested ({@code indexes { com.acme.Person = ['lastName'] }}, as produced by
+     * Groovy configuration scripts) or flat ({@code ['com.acme.Person': ['lastName']]}).
+     *
+     * @throws IllegalArgumentException if the block contains anything but class names mapped to field names
+     */
+    @Nonnull
+    static Map<String, Set<String>> resolveIndexes(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        Map<String, Set<String>> indexes = new LinkedHashMap<>();
+        Object value = config.get(KEY_INDEXES);
+        if (value == null) {
+            return indexes;
+        }
+        if (!(value instanceof Map)) {
+            throw invalid(dataSourceName, KEY_INDEXES, value, "must be a map of class names to field names");
+        }
+        collectIndexes(dataSourceName, "", (Map<?, ?>) value, indexes);
+        return indexes;
+    }
+
+    private static void collectIndexes(@Nonnull String dataSourceName, @Nonnull String prefix, @Nonnull Map<?, ?> source, @Nonnull Map<String, Set<String>> indexes) {
+        for (Map.Entry<?, ?> entry : source.entrySet()) {
+            String className = prefix + String.valueOf(entry.getKey()).trim();
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                collectIndexes(dataSourceName, className + ".", (Map<?, ?>) value, indexes);
+                continue;
+            }
+
+            Set<String> fieldNames = new LinkedHashSet<>();
+            if (value instanceof Collection) {
+                for (Object fieldName : (Collection<?>) value) {
+                    fieldNames.add(String.valueOf(fieldName).trim());
+                }
+            } else if (value instanceof CharSequence) {
+                for (String fieldName : value.toString().split(",")) {
+                    fieldNames.add(fieldName.trim());
+                }
+            } else {
+                throw invalid(dataSourceName, KEY_INDEXES + "." + className, value, "must be a list of field names");
+            }
+
+            if (className.isEmpty() || fieldNames.isEmpty() || fieldNames.contains("")) {
+                throw invalid(dataSourceName, KEY_INDEXES + "." + className, value, "class and field names must not be blank");
+            }
+            indexes.computeIfAbsent(className, k -> new LinkedHashSet<>()).addAll(fieldNames);
+        }
+    }
+
+    /**
+     * Creates the {@code Storage} selected by the {@code storage} key.
+     *
+     * @return the configured storage, or {@code null} if db4o's default should be kept or a
+     * {@code custom} storage cannot be resolved because {@code injector} is {@code null}
+     */
+    @Nullable
+    static Storage createStorage(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nullable Injector<?> injector) {
+        if (!config.containsKey(KEY_STORAGE)) {
+            return null;
+        }
+
+        String storage = getConfigValueAsString(config, KEY_STORAGE, "").trim().toLowerCase();
+        switch (storage) {
+            case STORAGE_FILE:
+                return new FileStorage();
+            case STORAGE_MEMORY:
+                return new MemoryStorage();
+            case STORAGE_CACHING:
+                int pageCount = getConfigValueAsInt(config, KEY_STORAGE_PAGE_COUNT, DEFAULT_PAGE_COUNT);
+                int pageSize = getConfigValueAsInt(config, KEY_STORAGE_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+                if (pageCount < 1) {
+                    throw invalid(dataSourceName, KEY_STORAGE_PAGE_COUNT, pageCount, "must be greater than zero");
+                }
+                if (pageSize < 1) {
+                    throw invalid(dataSourceName, KEY_STORAGE_PAGE_SIZE, pageSize, "must be greater than zero");
+                }
+                return new CachingStorage(new FileStorage(), pageCount, pageSize);
+            case STORAGE_NON_FLUSHING:
+                return new NonFlushingStorage(new FileStorage());
+            case STORAGE_MAPPED:
+                int segmentSize = getConfigValueAsInt(config, KEY_STORAGE_SEGMENT_SIZE, MappedFileStorage.DEFAULT_SEGMENT_SIZE);
+                if (segmentSize < 1) {
+                    throw invalid(dataSourceName, KEY_STORAGE_SEGMENT_SIZE, segmentSize, "must be greater than zero");
+                }
+                return new MappedFileStorage(segmentSize);
+            case STORAGE_CUSTOM:
+                String storageName = getConfigValueAsString(config, KEY_STORAGE_NAME, null);
+                if (injector == null) {
+                    return null;
+                }
+                return isBlank(storageName) ? injector.getInstance(Storage.class) : injector.getInstance(Storage.class, named(storageName));
+            default:
+                throw invalid(dataSourceName, KEY_STORAGE, storage, "must be one of [file, memory, caching, non_flushing, mapped, custom]");
+        }
+    }
+
+    private static void applyIndexes(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfiguration common) {
+        for (Map.Entry<String, Set<String>> index : resolveIndexes(dataSourceName, config).entrySet()) {
+            for (String fieldName : index.getValue()) {
+                common.objectClass(index.getKey()).objectField(fieldName).indexed(true);
+            }
+        }
+    }
+
+    private static void applyFileSettings(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull FileConfiguration file) {
+        if (config.containsKey(KEY_BLOCK_SIZE)) {
+            int blockSize = getConfigValueAsInt(config, KEY_BLOCK_SIZE);
+            if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE) {
+                throw invalid(dataSourceName, KEY_BLOCK_SIZE, blockSize, "must be between 1 and " + MAX_BLOCK_SIZE);
+            }
+            file.blockSize(blockSize);
+        }
+
+        if (config.containsKey(KEY_DATABASE_GROWTH_SIZE)) {
+            int growthSize = getConfigValueAsInt(config, KEY_DATABASE_GROWTH_SIZE);
+            if (growthSize < 0) {
+                throw invalid(dataSourceName, KEY_DATABASE_GROWTH_SIZE, growthSize, "must not be negative");
+            }
+            file.databaseGrowthSize(growthSize);
+        }
+
+        if (config.containsKey(KEY_FREESPACE)) {
+            String freespace = getConfigValueAsString(config, KEY_FREESPACE, "").trim().toLowerCase();
+            switch (freespace) {
+                case "btree":
+                    file.freespace().useBTreeSystem();
+                    break;
+                case "ram":
+                    file.freespace().useRamSystem();
+                    break;
+                default:
+                    throw invalid(dataSourceName, KEY_FREESPACE, freespace, "must be one of [btree, ram]");
+            }
+        }
+
+        if (config.containsKey(KEY_GENERATE_UUIDS)) {
+            file.generateUUIDs(getConfigValueAsBoolean(config, KEY_GENERATE_UUIDS) ? ConfigScope.GLOBALLY : ConfigScope.DISABLED);
+        }
+
+        if (config.containsKey(KEY_GENERATE_COMMIT_TIMESTAMPS)) {
+            file.generateCommitTimestamps(getConfigValueAsBoolean(config, KEY_GENERATE_COMMIT_TIMESTAMPS));
+        }
+
+        if (config.containsKey(KEY_LOCK_DATABASE_FILE)) {
+            file.lockDatabaseFile(getConfigValueAsBoolean(config, KEY_LOCK_DATABASE_FILE));
+        }
+
+        if (config.containsKey(KEY_READ_ONLY)) {
+            file.readOnly(getConfigValueAsBoolean(config, KEY_READ_ONLY));
+        }
+    }
+
+    private static void applyCommonSettings(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfiguration common) {
+        if (config.containsKey(KEY_ACTIVATION_DEPTH)) {
+            int activationDepth = getConfigValueAsInt(config, KEY_ACTIVATION_DEPTH);
+            if (activationDepth < 0) {
+                throw invalid(dataSourceName, KEY_ACTIVATION_DEPTH, activationDepth, "must not be negative");
+            }
+            common.activationDepth(activationDepth);
+        }
+
+        if (config.containsKey(KEY_UPDATE_DEPTH)) {
+            int updateDepth = getConfigValueAsInt(config, KEY_UPDATE_DEPTH);
+            if (updateDepth < 0) {
+                throw invalid(dataSourceName, KEY_UPDATE_DEPTH, updateDepth, "must not be negative");
+            }
+            common.updateDepth(updateDepth);
+        }
+
+        boolean weakReferences = getConfigValueAsBoolean(config, KEY_WEAK_REFERENCES, true);
+        if (config.containsKey(KEY_WEAK_REFERENCES)) {
+            common.weakReferences(weakReferences);
+        }
+
+        if (config.containsKey(KEY_WEAK_REFERENCE_COLLECTION_INTERVAL)) {
+            int interval = getConfigValueAsInt(config, KEY_WEAK_REFERENCE_COLLECTION_INTERVAL);
+            if (interval < 0) {
+                throw invalid(dataSourceName, KEY_WEAK_REFERENCE_COLLECTION_INTERVAL, interval, "must not be negative");
+            }
+            if (interval > 0 && !weakReferences) {
+                throw invalid(dataSourceName, KEY_WEAK_REFERENCE_COLLECTION_INTERVAL, interval, "requires " + KEY_WEAK_REFERENCES + " to be enabled");
+            }
+            common.weakReferenceCollectionInterval(interval);
+        }
+
+        if (config.containsKey(KEY_QUERY_EVALUATION_MODE)) {
+            String mode = getConfigValueAsString(config, KEY_QUERY_EVALUATION_MODE, "").trim().toLowerCase();
+            switch (mode) {
+                case "immediate":
+                    common.queries().evaluationMode(QueryEvaluationMode.IMMEDIATE);
+                    break;
+                case "lazy":
+                    common.queries().evaluationMode(QueryEvaluationMode.LAZY);
+                    break;
+                case "snapshot":
+                    common.queries().evaluationMode(QueryEvaluationMode.SNAPSHOT);
+                    break;
+                default:
+                    throw invalid(dataSourceName, KEY_QUERY_EVALUATION_MODE, mode, "must be one of [immediate, lazy, snapshot]");
+            }
+        }
+
+        applyTransparentSupport(dataSourceName, config, common);
+    }
+
+    /**
+     * Transparent persistence builds on transparent activation, thus enabling the former implies the latter.
+     * Rolled back transactions deactivate the objects they modified unless {@code transparent_persistence_rollback}
+     * is set to {@code none}, so that their next use reloads the committed state.
+     */
+    private static void applyTransparentSupport(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfiguration common) {
+        boolean persistence = getConfigValueAsBoolean(config, KEY_TRANSPARENT_PERSISTENCE, false);
+        boolean activation = getConfigValueAsBoolean(config, KEY_TRANSPARENT_ACTIVATION, persistence);
+        if (persistence && !activation) {
+            throw invalid(dataSourceName, KEY_TRANSPARENT_ACTIVATION, false, "must be enabled when " + KEY_TRANSPARENT_PERSISTENCE + " is enabled");
+        }
+
+        if (config.containsKey(KEY_TRANSPARENT_PERSISTENCE_ROLLBACK) && !persistence) {
+            throw invalid(dataSourceName, KEY_TRANSPARENT_PERSISTENCE_ROLLBACK, config.get(KEY_TRANSPARENT_PERSISTENCE_ROLLBACK), "requires " + KEY_TRANSPARENT_PERSISTENCE + " to be enabled");
+        }
+        String rollback = getConfigValueAsString(config, KEY_TRANSPARENT_PERSISTENCE_ROLLBACK, ROLLBACK_DEACTIVATE).trim().toLowerCase();
+        RollbackStrategy rollbackStrategy;
+        switch (rollback) {
+            case ROLLBACK_DEACTIVATE:
+                rollbackStrategy = new DeactivatingRollbackStrategy();
+                break;
+            case ROLLBACK_NONE:
+                rollbackStrategy = null;
+                break;
+            default:
+                throw invalid(dataSourceName, KEY_TRANSPARENT_PERSISTENCE_ROLLBACK, rollback, "must be one of [deactivate, none]");
+        }
+
+        if (persistence) {
+            common.add(new TransparentPersistenceSupport(rollbackStrategy));
+        } else if (activation) {
+            common.add(new TransparentActivationSupport());
+        }
+    }
+
+    @Nonnull
+    static IllegalArgumentException invalid(@Nonnull String dataSourceName, @Nonnull String key, @Nonnull Object value, @Nonnull String reason) {
+        return new IllegalArgumentException("Invalid value '" + value + "' for '" + key + "' in dataSource '" + dataSourceName + "': " + reason);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import griffon.plugins.db4o.Db4oMetrics;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Default {@code Db4oMetrics} that keeps callback timings in memory, per dataSource and per callback class.
+ *
+ * @author Andres Almiray
+ */
+public class InMemoryDb4oMetrics implements Db4oMetrics {
+    private final ConcurrentMap<String, CallbackStatistics> dataSources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<String, CallbackStatistics>> callbacks = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    @Override
+    public void callbackStarted(@Nonnull String dataSourceName, @Nonnull Class<?> callbackType) {
+        inFlight.computeIfAbsent(dataSourceName, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    @Override
+    public void callbackFinished(@Nonnull String dataSourceName, @Nonnull Class<?> callbackType, long durationNanos, boolean failed) {
+        inFlight.computeIfAbsent(dataSourceName, k -> new AtomicInteger()).decrementAndGet();
+        dataSources.computeIfAbsent(dataSourceName, k -> new CallbackStatistics()).record(durationNanos, failed);
+        callbacks.computeIfAbsent(dataSourceName, k -> new ConcurrentHashMap<>())
+            .computeIfAbsent(callbackType.getName(), k -> new CallbackStatistics())
+            .record(durationNanos, failed);
+    }
+
+    @Nonnull
+    public Map<String, CallbackStatistics> getDataSourceStatistics() {
+        return unmodifiableMap(new TreeMap<>(dataSources));
+    }
+
+    /**
+     * @return statistics of the given dataSource keyed by callback class name
+     */
+    @Nonnull
+    public Map<String, CallbackStatistics> getCallbackStatistics(@Nonnull String dataSourceName) {
+        Map<String, CallbackStatistics> statistics = callbacks.get(dataSourceName);
+        return statistics != null ? unmodifiableMap(new TreeMap<>(statistics)) : unmodifiableMap(new TreeMap<>());
+    }
+
+    /**
+     * @return number of callbacks currently running, keyed by dataSource
+     */
+    @Nonnull
+    public Map<String, Integer> getInFlight() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, AtomicInteger> entry : inFlight.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return unmodifiableMap(counts);
+    }
+
+    public int getInFlight(@Nonnull String dataSourceName) {
+        AtomicInteger counter = inFlight.get(dataSourceName);
+        return counter != null ? counter.get() : 0;
+    }
+
+    /**
+     * Clears all timings. In-flight counters are kept as callbacks may still be running.
+     */
+    public void reset() {
+        dataSources.clear();
+        callbacks.clear();
+    }
+}
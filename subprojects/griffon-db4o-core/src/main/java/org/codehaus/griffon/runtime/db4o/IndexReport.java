@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.config.CommonConfiguration;
+import com.db4o.ext.StoredClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Reports the field indexes db4o creates for a dataSource. db4o announces every index it creates, whether for a
+ * class that is new to the file or by rebuilding it from the objects already stored, as a message, thus the report
+ * listens to db4o's messages from the moment the file is opened. Other messages are logged at {@code DEBUG}.
+ *
+ * @author Andres Almiray
+ */
+final class IndexReport extends OutputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(IndexReport.class);
+    private static final String CREATING_INDEX = "creating index ";
+    private static final String CHARSET = "UTF-8";
+
+    private final String dataSourceName;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final Set<String> created = new LinkedHashSet<>();
+    private boolean opened;
+
+    private IndexReport(@Nonnull String dataSourceName) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+    }
+
+    /**
+     * Has db4o send its messages to a new report. Must be called before the file is opened.
+     */
+    @Nonnull
+    static IndexReport install(@Nonnull String dataSourceName, @Nonnull CommonConfiguration configuration) {
+        requireNonNull(configuration, "Argument 'configuration' must not be null");
+        IndexReport report = new IndexReport(dataSourceName);
+        try {
+            configuration.outStream(new PrintStream(report, true, CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        // db4o only announces index creation above the default message level of zero
+        configuration.messageLevel(1);
+        return report;
+    }
+
+    /**
+     * Logs whether each configured index was created, rebuilt or already available when the file was opened, or
+     * will be created along with the first stored instance of its class, in which case that is logged as it happens.
+     */
+    void opened(@Nonnull ObjectContainer objectContainer, @Nonnull Map<String, Set<String>> indexes) {
+        requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        requireNonNull(indexes, "Argument 'indexes' must not be null");
+
+        // db4o initializes the metadata of stored classes, building their missing indexes, when first asked for them
+        Map<String, StoredClass> storedClasses = new LinkedHashMap<>();
+        for (String className : indexes.keySet()) {
+            storedClasses.put(className, objectContainer.ext().storedClass(className));
+        }
+
+        Set<String> createdOnOpen;
+        synchronized (this) {
+            opened = true;
+            createdOnOpen = new LinkedHashSet<>(created);
+        }
+
+        for (Map.Entry<String, Set<String>> index : indexes.entrySet()) {
+            StoredClass storedClass = storedClasses.get(index.getKey());
+            for (String fieldName : index.getValue()) {
+                String field = index.getKey() + "." + fieldName;
+                if (storedClass == null) {
+                    LOG.info("Index on {} for dataSource '{}' will be created with the first stored instance", field, dataSourceName);
+                } else if (!createdOnOpen.contains(field)) {
+                    LOG.info("Index on {} for dataSource '{}' is available", field, dataSourceName);
+                } else if (storedClass.instanceCount() > 0) {
+                    LOG.info("Rebuilt index on {} for dataSource '{}' from {} stored objects", field, dataSourceName, storedClass.instanceCount());
+                } else {
+                    LOG.info("Created index on {} for dataSource '{}'", field, dataSourceName);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        if (b == '\n') {
+            flushLine();
+        } else if (b != '\r') {
+            line.write(b);
+        }
+    }
+
+    private void flushLine() {
+        String message;
+        try {
+            message = line.toString(CHARSET).trim();
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        line.reset();
+        if (message.isEmpty()) {
+            return;
+        }
+
+        if (!message.startsWith(CREATING_INDEX)) {
+            LOG.debug("db4o message for dataSource '{}': {}", dataSourceName, message);
+        } else if (opened) {
+            LOG.info("Created index on {} for dataSource '{}'", message.substring(CREATING_INDEX.length()), dataSourceName);
+        } else {
+            created.add(message.substring(CREATING_INDEX.length()));
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ext.Db4oIOException;
+import com.db4o.internal.Platform4;
+import com.db4o.io.Bin;
+import com.db4o.io.BinConfiguration;
+import com.db4o.io.RandomAccessFileFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * {@code Bin} backing {@link MappedFileStorage}. Only segments that lie entirely within the file are mapped,
+ * mapping past the end of the file would otherwise grow it.
+ *
+ * @author Andres Almiray
+ */
+final class MappedFileBin implements Bin {
+    private static final MappedByteBuffer[] NO_SEGMENTS = new MappedByteBuffer[0];
+
+    private final String path;
+    private final boolean readOnly;
+    private final int segmentSize;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private volatile MappedByteBuffer[] segments = NO_SEGMENTS;
+    private volatile long length;
+    private boolean[] dirty = new boolean[0];
+
+    MappedFileBin(@Nonnull BinConfiguration config, int segmentSize) throws Db4oIOException {
+        this.segmentSize = segmentSize;
+        this.readOnly = config.readOnly();
+        try {
+            this.path = new File(config.uri()).getCanonicalPath();
+            this.file = RandomAccessFileFactory.newRandomAccessFile(path, readOnly, config.lockFile());
+            this.channel = file.getChannel();
+            this.length = channel.size();
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+
+        if (!readOnly && config.initialLength() > length) {
+            write(config.initialLength() - 1, new byte[1], 1);
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read(long position, byte[] bytes, int bytesToRead) {
+        long available = length - position;
+        if (available <= 0) {
+            return -1;
+        }
+        int total = (int) Math.min(bytesToRead, available);
+
+        int offset = 0;
+        while (offset < total) {
+            long current = position + offset;
+            int index = (int) (current / segmentSize);
+            int segmentOffset = (int) (current % segmentSize);
+            int chunk = Math.min(total - offset, segmentSize - segmentOffset);
+
+            MappedByteBuffer segment = segment(index);
+            if (segment != null) {
+                ByteBuffer view = segment.duplicate();
+                view.position(segmentOffset);
+                view.get(bytes, offset, chunk);
+            } else {
+                chunk = readFromChannel(current, bytes, offset, chunk);
+                if (chunk < 0) {
+                    break;
+                }
+            }
+            offset += chunk;
+        }
+        return offset;
+    }
+
+    @Override
+    public int syncRead(long position, byte[] bytes, int bytesToRead) {
+        return read(position, bytes, bytesToRead);
+    }
+
+    @Override
+    public synchronized void write(long position, byte[] bytes, int bytesToWrite) {
+        if (readOnly) {
+            throw new Db4oIOException("File " + path + " is read only");
+        }
+
+        int offset = 0;
+        while (offset < bytesToWrite) {
+            long current = position + offset;
+            int index = (int) (current / segmentSize);
+            int segmentOffset = (int) (current % segmentSize);
+            int chunk = Math.min(bytesToWrite - offset, segmentSize - segmentOffset);
+
+            MappedByteBuffer segment = segment(index);
+            if (segment != null) {
+                ByteBuffer view = segment.duplicate();
+                view.position(segmentOffset);
+                view.put(bytes, offset, chunk);
+                dirty[index] = true;
+            } else {
+                writeToChannel(current, bytes, offset, chunk);
+            }
+            offset += chunk;
+        }
+
+        long end = position + bytesToWrite;
+        if (end > length) {
+            length = end;
+        }
+    }
+
+    @Override
+    public synchronized void sync() {
+        try {
+            MappedByteBuffer[] mapped = segments;
+            for (int i = 0; i < mapped.length; i++) {
+                if (dirty[i]) {
+                    mapped[i].force();
+                    dirty[i] = false;
+                }
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+    }
+
+    @Override
+    public void sync(Runnable runnable) {
+        sync();
+        runnable.run();
+        sync();
+    }
+
+    @Override
+    public synchronized void close() {
+        segments = NO_SEGMENTS;
+        dirty = new boolean[0];
+        try {
+            Platform4.unlockFile(path, file);
+            file.close();
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+    }
+
+    @Nullable
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length) {
+            return mapped[index];
+        }
+        if ((long) (index + 1) * segmentSize > length) {
+            return null;
+        }
+        return mapSegments(index);
+    }
+
+    @Nullable
+    private synchronized MappedByteBuffer mapSegments(int index) {
+        MappedByteBuffer[] mapped = segments;
+        if (index < mapped.length) {
+            return mapped[index];
+        }
+
+        int count = (int) (length / segmentSize);
+        if (index >= count) {
+            return null;
+        }
+
+        MappedByteBuffer[] grown = Arrays.copyOf(mapped, count);
+        FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+        try {
+            for (int i = mapped.length; i < count; i++) {
+                grown[i] = channel.map(mode, (long) i * segmentSize, segmentSize);
+            }
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+        dirty = Arrays.copyOf(dirty, count);
+        segments = grown;
+        return grown[index];
+    }
+
+    private int readFromChannel(long position, byte[] bytes, int offset, int count) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, count);
+            int read = 0;
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + read);
+                if (n < 0) {
+                    return read > 0 ? read : -1;
+                }
+                read += n;
+            }
+            return read;
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+    }
+
+    private void writeToChannel(long position, byte[] bytes, int offset, int count) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, count);
+            int written = 0;
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, position + written);
+            }
+        } catch (IOException e) {
+            throw new Db4oIOException(e);
+        }
+    }
+}
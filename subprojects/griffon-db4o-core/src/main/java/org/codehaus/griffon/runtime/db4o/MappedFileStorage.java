@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ext.Db4oIOException;
+import com.db4o.io.Bin;
+import com.db4o.io.BinConfiguration;
+import com.db4o.io.FileStorage;
+
+/**
+ * File based {@code Storage} that reads and writes through memory mapped regions of a {@code FileChannel}.
+ * The file is mapped in fixed size segments; new segments are mapped as the file grows past a segment boundary
+ * while the unmapped tail is accessed with positional channel reads and writes.
+ * <p>
+ * Mapped regions are released when they're garbage collected, not when the {@code Bin} is closed. Platforms that
+ * forbid deleting or renaming mapped files (Windows) may fail to do so right after the container is closed.
+ *
+ * @author Andres Almiray
+ */
+public class MappedFileStorage extends FileStorage {
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final int segmentSize;
+
+    public MappedFileStorage() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedFileStorage(int segmentSize) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("Argument 'segmentSize' must be greater than zero");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    @Override
+    public Bin open(BinConfiguration config) throws Db4oIOException {
+        return new MappedFileBin(config, segmentSize);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import griffon.plugins.db4o.ObjectContainerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Single writer thread that coalesces queued operations of a dataSource into one transaction. A group is
+ * committed once {@code batch_size} operations have been collected or {@code batch_window} milliseconds have
+ * passed since the first one arrived, whichever comes first. With the default window of zero a group holds
+ * whatever piled up while the previous commit was running.
+ *
+ * @author Andres Almiray
+ */
+class ObjectContainerBatch {
+    static final String KEY_BATCH_SIZE = "batch_size";
+    static final String KEY_BATCH_WINDOW = "batch_window";
+    static final String KEY_BATCH_QUEUE_SIZE = "batch_queue_size";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectContainerBatch.class);
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_BATCH_WINDOW = 0;
+    private static final int DEFAULT_BATCH_QUEUE_SIZE = 10000;
+    private static final Operation CLOSE = new Operation(null, false);
+
+    private final String dataSourceName;
+    private final Consumer<ObjectContainerCallback<Void>> executor;
+    private final int batchSize;
+    private final long batchWindow;
+    private final BlockingQueue<Operation> queue;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param executor runs the group commit callback against the dataSource's {@code ObjectContainer}
+     */
+    ObjectContainerBatch(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull Consumer<ObjectContainerCallback<Void>> executor) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.executor = requireNonNull(executor, "Argument 'executor' must not be null");
+        requireNonNull(config, "Argument 'config' must not be null");
+
+        this.batchSize = getConfigValueAsInt(config, KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        int window = getConfigValueAsInt(config, KEY_BATCH_WINDOW, DEFAULT_BATCH_WINDOW);
+        int queueSize = getConfigValueAsInt(config, KEY_BATCH_QUEUE_SIZE, DEFAULT_BATCH_QUEUE_SIZE);
+        if (batchSize < 1) {
+            throw invalid(dataSourceName, KEY_BATCH_SIZE, batchSize, "must be greater than zero");
+        }
+        if (window < 0) {
+            throw invalid(dataSourceName, KEY_BATCH_WINDOW, window, "must not be negative");
+        }
+        if (queueSize < 1) {
+            throw invalid(dataSourceName, KEY_BATCH_QUEUE_SIZE, queueSize, "must be greater than zero");
+        }
+        this.batchWindow = TimeUnit.MILLISECONDS.toNanos(window);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+
+        this.writer = new Thread(this::run, "db4o-" + dataSourceName + "-batch");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Nonnull
+    CompletableFuture<Void> submit(@Nonnull Object object, boolean delete) {
+        requireNonNull(object, "Argument 'object' must not be null");
+        if (closed) {
+            throw new IllegalStateException("Batch writer for dataSource '" + dataSourceName + "' has been closed");
+        }
+
+        Operation operation = new Operation(object, delete);
+        if (!queue.offer(operation)) {
+            throw new RejectedExecutionException("Batch queue for dataSource '" + dataSourceName + "' is full");
+        }
+        // close() may have drained the queue in the meantime; whoever takes the operation out completes its future
+        if (closed && queue.remove(operation)) {
+            throw new IllegalStateException("Batch writer for dataSource '" + dataSourceName + "' has been closed");
+        }
+        return operation.future;
+    }
+
+    /**
+     * Commits every operation queued so far and stops the writer thread.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            queue.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // operations that raced with close() never reach the writer thread
+        Operation operation;
+        IllegalStateException exception = new IllegalStateException("Batch writer for dataSource '" + dataSourceName + "' has been closed");
+        while ((operation = queue.poll()) != null) {
+            if (operation != CLOSE) {
+                operation.future.completeExceptionally(exception);
+            }
+        }
+    }
+
+    private void run() {
+        List<Operation> group = new ArrayList<>();
+        try {
+            boolean running = true;
+            while (running) {
+                Operation first = queue.take();
+                if (first == CLOSE) {
+                    break;
+                }
+                group.add(first);
+
+                long deadline = System.nanoTime() + batchWindow;
+                while (group.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Operation next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    } else if (next == CLOSE) {
+                        running = false;
+                        break;
+                    }
+                    group.add(next);
+                }
+
+                commit(group);
+                group.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Operation operation : group) {
+                operation.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void commit(@Nonnull List<Operation> group) {
+        LOG.trace("Committing {} operations on objectContainer '{}'", group.size(), dataSourceName);
+        try {
+            executor.accept((name, objectContainer) -> {
+                for (Operation operation : group) {
+                    operation.apply(objectContainer);
+                }
+                try {
+                    objectContainer.commit();
+                } catch (RuntimeException | Error e) {
+                    objectContainer.rollback();
+                    throw e;
+                }
+                return null;
+            });
+        } catch (Throwable e) {
+            // the writer keeps serving the groups that follow
+            LOG.warn("Group commit of {} operations on objectContainer '{}' failed", group.size(), dataSourceName, e);
+            for (Operation operation : group) {
+                operation.future.completeExceptionally(operation.failure != null ? operation.failure : e);
+            }
+            return;
+        }
+
+        for (Operation operation : group) {
+            if (operation.failure != null) {
+                operation.future.completeExceptionally(operation.failure);
+            } else {
+                operation.future.complete(null);
+            }
+        }
+    }
+
+    private static final class Operation {
+        private final Object object;
+        private final boolean delete;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private RuntimeException failure;
+
+        private Operation(Object object, boolean delete) {
+            this.object = object;
+            this.delete = delete;
+        }
+
+        private void apply(@Nonnull ObjectContainer objectContainer) {
+            try {
+                if (delete) {
+                    objectContainer.delete(object);
+                } else {
+                    objectContainer.store(object);
+                }
+            } catch (RuntimeException e) {
+                // a failing operation does not spoil the rest of the group
+                failure = e;
+            }
+        }
+    }
+}
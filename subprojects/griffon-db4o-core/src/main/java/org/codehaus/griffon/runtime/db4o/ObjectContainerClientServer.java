@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.ObjectServer;
+import com.db4o.config.CommonConfigurationProvider;
+import com.db4o.config.FileConfigurationProvider;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.isBlank;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Opens {@code server} and {@code client} dataSources through db4o's client/server API.
+ * <p>
+ * A server owns the database file and listens on {@code port}; a port of {@code 0} keeps it in-process,
+ * reachable only through {@code ObjectServer.openClient()}. Clients connect to {@code host:port} with the
+ * given {@code user} and {@code password}, which must have been granted through the server's {@code users} block.
+ * <p>
+ * db4o's client/server API ships in {@code db4o-cs-java5}, an optional dependency that is looked up reflectively;
+ * opening a {@code server} or {@code client} dataSource without it on the classpath fails with an
+ * {@code IllegalArgumentException}.
+ *
+ * @author Andres Almiray
+ */
+final class ObjectContainerClientServer {
+    static final String KEY_TYPE = "type";
+    static final String KEY_HOST = "host";
+    static final String KEY_PORT = "port";
+    static final String KEY_USER = "user";
+    static final String KEY_PASSWORD = "password";
+    static final String KEY_USERS = "users";
+    static final String KEY_CLIENT_POOL_SIZE = "client_pool_size";
+
+    static final String TYPE_EMBEDDED = "embedded";
+    static final String TYPE_SERVER = "server";
+    static final String TYPE_CLIENT = "client";
+
+    private static final String DEFAULT_HOST = "localhost";
+    private static final int ARBITRARY_PORT = -1;
+    private static final String DB4O_CLIENT_SERVER = "com.db4o.cs.Db4oClientServer";
+    private static final String SERVER_CONFIGURATION = "com.db4o.cs.config.ServerConfiguration";
+    private static final String CLIENT_CONFIGURATION = "com.db4o.cs.config.ClientConfiguration";
+
+    private ObjectContainerClientServer() {
+        // prevent instantiation
+    }
+
+    @Nonnull
+    static String resolveType(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        String type = getConfigValueAsString(config, KEY_TYPE, TYPE_EMBEDDED);
+        switch (type) {
+            case TYPE_EMBEDDED:
+            case TYPE_SERVER:
+            case TYPE_CLIENT:
+                return type;
+            default:
+                throw invalid(dataSourceName, KEY_TYPE, type, "must be one of " + TYPE_EMBEDDED + ", " + TYPE_SERVER + " or " + TYPE_CLIENT);
+        }
+    }
+
+    static boolean isClient(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        return TYPE_CLIENT.equals(resolveType(dataSourceName, config));
+    }
+
+    /**
+     * @return a fresh {@code com.db4o.cs.config.ServerConfiguration}
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    static <C extends FileConfigurationProvider & CommonConfigurationProvider> C newServerConfiguration(@Nonnull String dataSourceName) {
+        return (C) invoke(dataSourceName, TYPE_SERVER, "newServerConfiguration", new Class<?>[0]);
+    }
+
+    @Nonnull
+    static ObjectServer openServer(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull Object configuration, @Nonnull File dbfile) {
+        int port = getConfigValueAsInt(config, KEY_PORT, 0);
+        if (port < ARBITRARY_PORT) {
+            throw invalid(dataSourceName, KEY_PORT, port, "must be a port number, 0 for an in-process server or -1 for any free port");
+        }
+
+        ObjectServer server = (ObjectServer) invoke(dataSourceName, TYPE_SERVER, "openServer",
+            new Class<?>[]{loadClass(dataSourceName, TYPE_SERVER, SERVER_CONFIGURATION), String.class, int.class},
+            configuration, dbfile.getAbsolutePath(), port);
+        Object users = config.get(KEY_USERS);
+        if (users instanceof Map) {
+            for (Map.Entry<?, ?> user : ((Map<?, ?>) users).entrySet()) {
+                server.grantAccess(String.valueOf(user.getKey()), String.valueOf(user.getValue()));
+            }
+        } else if (users != null) {
+            server.close();
+            throw invalid(dataSourceName, KEY_USERS, users, "must map user names to passwords");
+        }
+        return server;
+    }
+
+    /**
+     * @return a fresh {@code com.db4o.cs.config.ClientConfiguration} with the dataSource's common settings applied
+     */
+    @Nonnull
+    static CommonConfigurationProvider newClientConfiguration(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        CommonConfigurationProvider configuration = (CommonConfigurationProvider) invoke(dataSourceName, TYPE_CLIENT, "newClientConfiguration", new Class<?>[0]);
+        EmbeddedConfigurationSupport.applyCommonTo(dataSourceName, config, configuration);
+        return configuration;
+    }
+
+    @Nonnull
+    static ObjectContainer openClient(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        return openClient(dataSourceName, config, newClientConfiguration(dataSourceName, config));
+    }
+
+    @Nonnull
+    static ObjectContainer openClient(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull CommonConfigurationProvider configuration) {
+        String host = getConfigValueAsString(config, KEY_HOST, DEFAULT_HOST);
+        int port = getConfigValueAsInt(config, KEY_PORT, 0);
+        String user = getConfigValueAsString(config, KEY_USER, null);
+        String password = getConfigValueAsString(config, KEY_PASSWORD, null);
+        if (port < 1) {
+            throw invalid(dataSourceName, KEY_PORT, port, "must be the port of a running server");
+        }
+        if (isBlank(user)) {
+            throw invalid(dataSourceName, KEY_USER, String.valueOf(user), "must not be blank");
+        }
+
+        return (ObjectContainer) invoke(dataSourceName, TYPE_CLIENT, "openClient",
+            new Class<?>[]{loadClass(dataSourceName, TYPE_CLIENT, CLIENT_CONFIGURATION), String.class, int.class, String.class, String.class},
+            configuration, host, port, user, password);
+    }
+
+    @Nonnull
+    private static Object invoke(@Nonnull String dataSourceName, @Nonnull String type, @Nonnull String methodName, @Nonnull Class<?>[] parameterTypes, Object... args) {
+        Method method;
+        try {
+            method = loadClass(dataSourceName, type, DB4O_CLIENT_SERVER).getMethod(methodName, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported db4o-cs-java5 version, " + DB4O_CLIENT_SERVER + "." + methodName + "() is missing", e);
+        }
+
+        try {
+            return method.invoke(null, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nonnull
+    private static Class<?> loadClass(@Nonnull String dataSourceName, @Nonnull String type, @Nonnull String className) {
+        try {
+            return Class.forName(className, true, ObjectContainerClientServer.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw invalid(dataSourceName, KEY_TYPE, type, "requires db4o-cs-java5 in the classpath");
+        }
+    }
+}
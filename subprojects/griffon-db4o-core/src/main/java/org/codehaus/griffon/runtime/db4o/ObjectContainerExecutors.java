@@ -0,0 +1,152 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static griffon.util.ConfigUtils.getConfigValueAsBoolean;
+import static griffon.util.ConfigUtils.getConfigValueAsInt;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Creates the bounded executors that back {@code withDb4oAsync}. Work submitted once all threads are busy
+ * and the queue is full is rejected with a {@code RejectedExecutionException}. Work still queued when the
+ * dataSource is closed is discarded, its futures fail with an {@code IllegalStateException}.
+ *
+ * @author Andres Almiray
+ */
+final class ObjectContainerExecutors {
+    static final String KEY_ASYNC_POOL_SIZE = "async_pool_size";
+    static final String KEY_ASYNC_QUEUE_SIZE = "async_queue_size";
+    static final String KEY_ASYNC_VIRTUAL_THREADS = "async_virtual_threads";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectContainerExecutors.class);
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private ObjectContainerExecutors() {
+        // prevent instantiation
+    }
+
+    @Nonnull
+    static ThreadPoolExecutor create(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config) {
+        int poolSize = getConfigValueAsInt(config, KEY_ASYNC_POOL_SIZE, Runtime.getRuntime().availableProcessors());
+        int queueSize = getConfigValueAsInt(config, KEY_ASYNC_QUEUE_SIZE, DEFAULT_QUEUE_SIZE);
+        boolean virtualThreads = getConfigValueAsBoolean(config, KEY_ASYNC_VIRTUAL_THREADS, false);
+        if (poolSize < 1) {
+            throw invalid(dataSourceName, KEY_ASYNC_POOL_SIZE, poolSize, "must be greater than zero");
+        }
+        if (queueSize < 1) {
+            throw invalid(dataSourceName, KEY_ASYNC_QUEUE_SIZE, queueSize, "must be greater than zero");
+        }
+
+        String prefix = "db4o-" + dataSourceName + "-async-";
+        ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory(prefix) : null;
+        if (threadFactory == null) {
+            if (virtualThreads) {
+                LOG.warn("Virtual threads are not available in this JVM. Using platform threads for dataSource '{}'", dataSourceName);
+            }
+            threadFactory = platformThreadFactory(prefix);
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    @Nonnull
+    static <R> CompletableFuture<R> submit(@Nonnull ThreadPoolExecutor executor, @Nonnull Supplier<R> supplier) {
+        // unlike supplyAsync() the future remains reachable from the queued task
+        Task<R> task = new Task<>(supplier);
+        executor.execute(task);
+        return task.future;
+    }
+
+    /**
+     * Lets running work finish but fails queued work, which would otherwise open the dataSource again.
+     */
+    static void discard(@Nonnull String dataSourceName, @Nonnull ThreadPoolExecutor executor) {
+        executor.shutdown();
+        List<Runnable> queued = new ArrayList<>();
+        executor.getQueue().drainTo(queued);
+        if (queued.isEmpty()) {
+            return;
+        }
+
+        LOG.debug("Discarding {} queued callbacks of dataSource '{}'", queued.size(), dataSourceName);
+        IllegalStateException exception = new IllegalStateException("ObjectContainer '" + dataSourceName + "' has been closed");
+        for (Runnable runnable : queued) {
+            if (runnable instanceof Task) {
+                ((Task<?>) runnable).future.completeExceptionally(exception);
+            }
+        }
+    }
+
+    @Nonnull
+    private static ThreadFactory platformThreadFactory(@Nonnull String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // resolved reflectively as the plugin targets JDK8
+    @Nullable
+    private static ThreadFactory virtualThreadFactory(@Nonnull String prefix) {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static final class Task<R> implements Runnable {
+        private final Supplier<R> supplier;
+        private final CompletableFuture<R> future = new CompletableFuture<>();
+
+        private Task(@Nonnull Supplier<R> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import griffon.plugins.db4o.ExportFormat;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Collections.newSetFromMap;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Writes stored objects one record at a time. Each object is activated to depth 1 only, just enough to read its
+ * fields; stored objects it refers to are written as their IDs while collections, maps and arrays are written
+ * inline. Whatever had to be activated is deactivated again once the record has been written.
+ *
+ * @author Andres Almiray
+ */
+final class ObjectContainerExporter implements Closeable {
+    private final ObjectContainer objectContainer;
+    private final Encoder encoder;
+    private final Map<Class<?>, Field[]> fields = new HashMap<>();
+    private final Set<Object> inlined = newSetFromMap(new IdentityHashMap<>());
+    private final List<Object> activated = new ArrayList<>();
+
+    ObjectContainerExporter(@Nonnull ObjectContainer objectContainer, @Nonnull OutputStream output, @Nonnull ExportFormat format) throws IOException {
+        this.objectContainer = requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        requireNonNull(output, "Argument 'output' must not be null");
+        this.encoder = requireNonNull(format, "Argument 'format' must not be null") == ExportFormat.NDJSON ? new NdjsonEncoder(output) : new BinaryEncoder(output);
+    }
+
+    void export(@Nonnull Object object) throws IOException {
+        try {
+            activate(object);
+            Field[] objectFields = fieldsOf(object.getClass());
+            encoder.beginRecord(object.getClass(), objectFields, objectContainer.ext().getID(object));
+            writeFields(object, objectFields);
+            encoder.endRecord();
+        } finally {
+            for (Object o : activated) {
+                objectContainer.deactivate(o, 1);
+            }
+            activated.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        encoder.close();
+    }
+
+    private void writeFields(@Nonnull Object object, @Nonnull Field[] objectFields) throws IOException {
+        for (Field field : objectFields) {
+            encoder.beginField(field);
+            try {
+                writeValue(field.get(object));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Cannot read field " + field, e);
+            }
+        }
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            encoder.writeNull();
+        } else if (value instanceof Boolean) {
+            encoder.writeBoolean((Boolean) value);
+        } else if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long) {
+            encoder.writeLong(((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            encoder.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof Date) {
+            encoder.writeLong(((Date) value).getTime());
+        } else if (value instanceof Enum) {
+            encoder.writeString(((Enum<?>) value).name());
+        } else if (value instanceof CharSequence || value instanceof Character || value instanceof Number) {
+            encoder.writeString(value.toString());
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            encoder.beginArray(length);
+            for (int i = 0; i < length; i++) {
+                writeValue(Array.get(value, i));
+            }
+            encoder.endArray();
+        } else {
+            writeObject(value);
+        }
+    }
+
+    private void writeObject(@Nonnull Object value) throws IOException {
+        long id = objectContainer.ext().getID(value);
+        boolean container = value instanceof Collection || value instanceof Map;
+        if ((id != 0 && !container) || !inlined.add(value)) {
+            // a collection that contains itself is cut short with a reference
+            if (id != 0) {
+                encoder.writeReference(id);
+            } else {
+                encoder.writeNull();
+            }
+            return;
+        }
+
+        try {
+            activate(value);
+            if (value instanceof Collection) {
+                Collection<?> collection = (Collection<?>) value;
+                encoder.beginArray(collection.size());
+                for (Object element : collection) {
+                    writeValue(element);
+                }
+                encoder.endArray();
+            } else if (value instanceof Map) {
+                Map<?, ?> map = (Map<?, ?>) value;
+                encoder.beginMap(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    encoder.beginEntry();
+                    writeValue(entry.getKey());
+                    writeValue(entry.getValue());
+                    encoder.endEntry();
+                }
+                encoder.endMap();
+            } else {
+                Field[] objectFields = fieldsOf(value.getClass());
+                encoder.beginObject(value.getClass(), objectFields);
+                writeFields(value, objectFields);
+                encoder.endObject();
+            }
+        } finally {
+            inlined.remove(value);
+        }
+    }
+
+    private void activate(@Nonnull Object object) {
+        if (!objectContainer.ext().isActive(object)) {
+            objectContainer.activate(object, 1);
+            activated.add(object);
+        }
+    }
+
+    @Nonnull
+    private Field[] fieldsOf(@Nonnull Class<?> type) {
+        return fields.computeIfAbsent(type, t -> {
+            List<Field> list = new ArrayList<>();
+            for (Class<?> c = t; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        list.add(field);
+                    }
+                }
+            }
+            return list.toArray(new Field[list.size()]);
+        });
+    }
+
+    private abstract static class Encoder implements Closeable {
+        abstract void beginRecord(@Nonnull Class<?> type, @Nonnull Field[] fields, long id) throws IOException;
+
+        abstract void endRecord() throws IOException;
+
+        abstract void beginObject(@Nonnull Class<?> type, @Nonnull Field[] fields) throws IOException;
+
+        abstract void endObject() throws IOException;
+
+        abstract void beginField(@Nonnull Field field) throws IOException;
+
+        abstract void beginArray(int size) throws IOException;
+
+        abstract void endArray() throws IOException;
+
+        abstract void beginMap(int size) throws IOException;
+
+        abstract void endMap() throws IOException;
+
+        abstract void beginEntry() throws IOException;
+
+        abstract void endEntry() throws IOException;
+
+        abstract void writeNull() throws IOException;
+
+        abstract void writeBoolean(boolean value) throws IOException;
+
+        abstract void writeLong(long value) throws IOException;
+
+        abstract void writeDouble(double value) throws IOException;
+
+        abstract void writeString(@Nonnull String value) throws IOException;
+
+        abstract void writeReference(long id) throws IOException;
+    }
+
+    private static final class NdjsonEncoder extends Encoder {
+        private final Writer writer;
+        private boolean separate;
+
+        private NdjsonEncoder(@Nonnull OutputStream output) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        void beginRecord(@Nonnull Class<?> type, @Nonnull Field[] fields, long id) throws IOException {
+            writer.write("{\"@class\":");
+            quote(type.getName());
+            writer.write(",\"@id\":");
+            writer.write(Long.toString(id));
+            separate = true;
+        }
+
+        @Override
+        void endRecord() throws IOException {
+            writer.write("}\n");
+            separate = false;
+        }
+
+        @Override
+        void beginObject(@Nonnull Class<?> type, @Nonnull Field[] fields) throws IOException {
+            value();
+            writer.write("{\"@class\":");
+            quote(type.getName());
+            separate = true;
+        }
+
+        @Override
+        void endObject() throws IOException {
+            end('}');
+        }
+
+        @Override
+        void beginField(@Nonnull Field field) throws IOException {
+            value();
+            quote(field.getName());
+            writer.write(':');
+            separate = false;
+        }
+
+        @Override
+        void beginArray(int size) throws IOException {
+            open("[");
+        }
+
+        @Override
+        void endArray() throws IOException {
+            end(']');
+        }
+
+        @Override
+        void beginMap(int size) throws IOException {
+            open("{\"@map\":[");
+        }
+
+        @Override
+        void endMap() throws IOException {
+            writer.write("]}");
+            separate = true;
+        }
+
+        @Override
+        void beginEntry() throws IOException {
+            open("[");
+        }
+
+        @Override
+        void endEntry() throws IOException {
+            end(']');
+        }
+
+        @Override
+        void writeNull() throws IOException {
+            value();
+            writer.write("null");
+        }
+
+        @Override
+        void writeBoolean(boolean value) throws IOException {
+            value();
+            writer.write(Boolean.toString(value));
+        }
+
+        @Override
+        void writeLong(long value) throws IOException {
+            value();
+            writer.write(Long.toString(value));
+        }
+
+        @Override
+        void writeDouble(double value) throws IOException {
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                // JSON has no literal for these
+                writeString(Double.toString(value));
+                return;
+            }
+            value();
+            writer.write(Double.toString(value));
+        }
+
+        @Override
+        void writeString(@Nonnull String value) throws IOException {
+            value();
+            quote(value);
+        }
+
+        @Override
+        void writeReference(long id) throws IOException {
+            value();
+            writer.write("{\"@ref\":");
+            writer.write(Long.toString(id));
+            writer.write('}');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+
+        private void value() throws IOException {
+            if (separate) {
+                writer.write(',');
+            }
+            separate = true;
+        }
+
+        private void open(@Nonnull String token) throws IOException {
+            value();
+            writer.write(token);
+            separate = false;
+        }
+
+        private void end(char token) throws IOException {
+            writer.write(token);
+            separate = true;
+        }
+
+        private void quote(@Nonnull String value) throws IOException {
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        writer.write("\\\"");
+                        break;
+                    case '\\':
+                        writer.write("\\\\");
+                        break;
+                    case '\n':
+                        writer.write("\\n");
+                        break;
+                    case '\r':
+                        writer.write("\\r");
+                        break;
+                    case '\t':
+                        writer.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            writer.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            writer.write(c);
+                        }
+                }
+            }
+            writer.write('"');
+        }
+    }
+
+    /**
+     * Starts with {@code DB4X} and a version byte. Each record is a class index, the object's ID and its field
+     * values. A class index equal to the number of classes seen so far introduces a new class and is followed by
+     * its name, its field count and its field names. Values start with a tag byte; integers are zigzag encoded
+     * variable length longs.
+     */
+    private static final class BinaryEncoder extends Encoder {
+        private static final byte[] MAGIC = {'D', 'B', '4', 'X', 1};
+        private static final int TAG_NULL = 0;
+        private static final int TAG_TRUE = 1;
+        private static final int TAG_FALSE = 2;
+        private static final int TAG_LONG = 3;
+        private static final int TAG_DOUBLE = 4;
+        private static final int TAG_STRING = 5;
+        private static final int TAG_REFERENCE = 6;
+        private static final int TAG_ARRAY = 7;
+        private static final int TAG_MAP = 8;
+        private static final int TAG_OBJECT = 9;
+
+        private final DataOutputStream output;
+        private final Map<Class<?>, Integer> classes = new HashMap<>();
+
+        private BinaryEncoder(@Nonnull OutputStream output) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(output));
+            this.output.write(MAGIC);
+        }
+
+        @Override
+        void beginRecord(@Nonnull Class<?> type, @Nonnull Field[] fields, long id) throws IOException {
+            writeClass(type, fields);
+            writeVarLong(id);
+        }
+
+        @Override
+        void endRecord() {
+            // records have a fixed number of values
+        }
+
+        @Override
+        void beginObject(@Nonnull Class<?> type, @Nonnull Field[] fields) throws IOException {
+            output.write(TAG_OBJECT);
+            writeClass(type, fields);
+        }
+
+        @Override
+        void endObject() {
+            // objects have a fixed number of values
+        }
+
+        @Override
+        void beginField(@Nonnull Field field) {
+            // field names are part of the class definition
+        }
+
+        @Override
+        void beginArray(int size) throws IOException {
+            output.write(TAG_ARRAY);
+            writeVarLong(size);
+        }
+
+        @Override
+        void endArray() {
+            // arrays are prefixed by their size
+        }
+
+        @Override
+        void beginMap(int size) throws IOException {
+            output.write(TAG_MAP);
+            writeVarLong(size);
+        }
+
+        @Override
+        void endMap() {
+            // maps are prefixed by their size
+        }
+
+        @Override
+        void beginEntry() {
+            // an entry is a key followed by a value
+        }
+
+        @Override
+        void endEntry() {
+            // an entry is a key followed by a value
+        }
+
+        @Override
+        void writeNull() throws IOException {
+            output.write(TAG_NULL);
+        }
+
+        @Override
+        void writeBoolean(boolean value) throws IOException {
+            output.write(value ? TAG_TRUE : TAG_FALSE);
+        }
+
+        @Override
+        void writeLong(long value) throws IOException {
+            output.write(TAG_LONG);
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        @Override
+        void writeDouble(double value) throws IOException {
+            output.write(TAG_DOUBLE);
+            output.writeDouble(value);
+        }
+
+        @Override
+        void writeString(@Nonnull String value) throws IOException {
+            output.write(TAG_STRING);
+            writeText(value);
+        }
+
+        @Override
+        void writeReference(long id) throws IOException {
+            output.write(TAG_REFERENCE);
+            writeVarLong(id);
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+        }
+
+        private void writeClass(@Nonnull Class<?> type, @Nonnull Field[] fields) throws IOException {
+            Integer index = classes.get(type);
+            if (index != null) {
+                writeVarLong(index);
+                return;
+            }
+
+            writeVarLong(classes.size());
+            classes.put(type, classes.size());
+            writeText(type.getName());
+            writeVarLong(fields.length);
+            for (Field field : fields) {
+                writeText(field.getName());
+            }
+        }
+
+        private void writeText(@Nonnull String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            output.write(bytes);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                output.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            output.write((int) value);
+        }
+    }
+}
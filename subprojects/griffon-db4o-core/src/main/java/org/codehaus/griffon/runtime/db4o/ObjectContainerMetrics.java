@@ -0,0 +1,347 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.diagnostic.Diagnostic;
+import com.db4o.diagnostic.DiagnosticListener;
+import com.db4o.events.CommitEventArgs;
+import com.db4o.events.EventListener4;
+import com.db4o.events.EventRegistry;
+import com.db4o.events.EventRegistryFactory;
+import com.db4o.events.ObjectInfoEventArgs;
+import com.db4o.events.QueryEventArgs;
+import com.db4o.ext.SystemInfo;
+import com.db4o.internal.ObjectContainerBase;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Collects performance figures of a single dataSource from db4o's event registry and diagnostics.
+ * Counters survive reconnections; they are only cleared by {@link #reset()}.
+ *
+ * @author Andres Almiray
+ */
+public class ObjectContainerMetrics implements DiagnosticListener {
+    private static final long[] LATENCY_BUCKETS = {1, 5, 10, 50, 100, 500, 1000};
+    private static final int RATE_WINDOW = 10;
+    private static final long REFERENCE_CACHE_SAMPLE_INTERVAL = TimeUnit.SECONDS.toNanos(RATE_WINDOW);
+
+    private final String dataSourceName;
+    private final LongAdder queryCount = new LongAdder();
+    private final LongAdder queryTime = new LongAdder();
+    private final AtomicLong queryTimeMax = new AtomicLong();
+    private final LongAdder[] queryLatency = new LongAdder[LATENCY_BUCKETS.length + 1];
+    private final LongAdder commitCount = new LongAdder();
+    private final LongAdder commitTime = new LongAdder();
+    private final AtomicLong commitTimeMax = new AtomicLong();
+    private final RateMeter stored = new RateMeter();
+    private final RateMeter activated = new RateMeter();
+    private final ConcurrentMap<Object, Long> runningQueries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Object, Long> runningCommits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> diagnostics = new ConcurrentHashMap<>();
+    private final AtomicLong referenceCacheSampled = new AtomicLong(System.nanoTime() - REFERENCE_CACHE_SAMPLE_INTERVAL);
+    private volatile int referenceCacheSize;
+
+    private final EventListener4<QueryEventArgs> queryStarted = (event, args) -> runningQueries.put(args.query(), System.nanoTime());
+    private final EventListener4<QueryEventArgs> queryFinished = (event, args) -> queryFinished(args);
+    private final EventListener4<CommitEventArgs> committing = (event, args) -> runningCommits.put(args.transaction(), System.nanoTime());
+    private final EventListener4<CommitEventArgs> committed = (event, args) -> committed(args);
+    private final EventListener4<ObjectInfoEventArgs> objectStored = (event, args) -> stored.mark();
+    private final EventListener4<ObjectInfoEventArgs> objectActivated = (event, args) -> activated.mark();
+
+    private volatile ObjectContainer objectContainer;
+
+    public ObjectContainerMetrics(@Nonnull String dataSourceName) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        for (int i = 0; i < queryLatency.length; i++) {
+            queryLatency[i] = new LongAdder();
+        }
+    }
+
+    @Nonnull
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Nullable
+    public ObjectContainer getObjectContainer() {
+        return objectContainer;
+    }
+
+    /**
+     * Starts listening to events of a freshly opened {@code ObjectContainer}.
+     */
+    public synchronized void attach(@Nonnull ObjectContainer objectContainer) {
+        requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        detach();
+
+        EventRegistry registry = EventRegistryFactory.forObjectContainer(objectContainer);
+        registry.queryStarted().addListener(queryStarted);
+        registry.queryFinished().addListener(queryFinished);
+        registry.committing().addListener(committing);
+        registry.committed().addListener(committed);
+        registry.created().addListener(objectStored);
+        registry.updated().addListener(objectStored);
+        registry.activated().addListener(objectActivated);
+        this.objectContainer = objectContainer;
+        referenceCacheSampled.set(System.nanoTime() - REFERENCE_CACHE_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Stops listening to events of the current {@code ObjectContainer}, if any.
+     */
+    public synchronized void detach() {
+        ObjectContainer current = objectContainer;
+        objectContainer = null;
+        runningQueries.clear();
+        runningCommits.clear();
+        if (current == null || current.ext().isClosed()) {
+            return;
+        }
+
+        EventRegistry registry = EventRegistryFactory.forObjectContainer(current);
+        registry.queryStarted().removeListener(queryStarted);
+        registry.queryFinished().removeListener(queryFinished);
+        registry.committing().removeListener(committing);
+        registry.committed().removeListener(committed);
+        registry.created().removeListener(objectStored);
+        registry.updated().removeListener(objectStored);
+        registry.activated().removeListener(objectActivated);
+    }
+
+    @Override
+    public void onDiagnostic(Diagnostic diagnostic) {
+        diagnostics.computeIfAbsent(diagnostic.getClass().getSimpleName(), k -> new LongAdder()).increment();
+    }
+
+    public void reset() {
+        queryCount.reset();
+        queryTime.reset();
+        queryTimeMax.set(0);
+        for (LongAdder bucket : queryLatency) {
+            bucket.reset();
+        }
+        commitCount.reset();
+        commitTime.reset();
+        commitTimeMax.set(0);
+        stored.reset();
+        activated.reset();
+        diagnostics.clear();
+    }
+
+    public long getQueryCount() {
+        return queryCount.sum();
+    }
+
+    public double getQueryTimeAverage() {
+        return average(queryTime.sum(), queryCount.sum());
+    }
+
+    public double getQueryTimeMax() {
+        return toMillis(queryTimeMax.get());
+    }
+
+    /**
+     * @return number of queries per latency bucket, keyed by the bucket's upper bound
+     */
+    @Nonnull
+    public Map<String, Long> getQueryLatencyHistogram() {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+            histogram.put("<= " + LATENCY_BUCKETS[i] + "ms", queryLatency[i].sum());
+        }
+        histogram.put("> " + LATENCY_BUCKETS[LATENCY_BUCKETS.length - 1] + "ms", queryLatency[LATENCY_BUCKETS.length].sum());
+        return histogram;
+    }
+
+    public long getStoredCount() {
+        return stored.count();
+    }
+
+    public double getStoredPerSecond() {
+        return stored.rate();
+    }
+
+    public long getActivatedCount() {
+        return activated.count();
+    }
+
+    public double getActivatedPerSecond() {
+        return activated.rate();
+    }
+
+    public long getCommitCount() {
+        return commitCount.sum();
+    }
+
+    public double getCommitTimeAverage() {
+        return average(commitTime.sum(), commitCount.sum());
+    }
+
+    public double getCommitTimeMax() {
+        return toMillis(commitTimeMax.get());
+    }
+
+    public long getFreespaceSize() {
+        SystemInfo systemInfo = systemInfo();
+        return systemInfo != null ? systemInfo.freespaceSize() : 0L;
+    }
+
+    public long getFileSize() {
+        SystemInfo systemInfo = systemInfo();
+        return systemInfo != null ? systemInfo.totalSize() : 0L;
+    }
+
+    /**
+     * @return number of objects held by the reference cache of the root container's transaction, sampled at most
+     * once every {@code RATE_WINDOW} seconds
+     */
+    public int getReferenceCacheSize() {
+        ObjectContainer current = objectContainer;
+        if (!(current instanceof ObjectContainerBase) || current.ext().isClosed()) {
+            return 0;
+        }
+
+        // walking the cache holds the container's lock, thus frequent polls get the last sample instead
+        long now = System.nanoTime();
+        long sampled = referenceCacheSampled.get();
+        if (now - sampled >= REFERENCE_CACHE_SAMPLE_INTERVAL && referenceCacheSampled.compareAndSet(sampled, now)) {
+            AtomicInteger size = new AtomicInteger();
+            synchronized (current.ext().lock()) {
+                ((ObjectContainerBase) current).transaction().referenceSystem().traverseReferences(reference -> size.incrementAndGet());
+            }
+            referenceCacheSize = size.get();
+        }
+        return referenceCacheSize;
+    }
+
+    /**
+     * @return number of diagnostics reported by db4o, keyed by diagnostic type
+     */
+    @Nonnull
+    public Map<String, Long> getDiagnostics() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : diagnostics.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    private void queryFinished(@Nonnull QueryEventArgs args) {
+        Long start = runningQueries.remove(args.query());
+        if (start == null) {
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        queryCount.increment();
+        queryTime.add(elapsed);
+        queryTimeMax.accumulateAndGet(elapsed, Math::max);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(elapsed);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        queryLatency[bucket].increment();
+    }
+
+    private void committed(@Nonnull CommitEventArgs args) {
+        Long start = runningCommits.remove(args.transaction());
+        commitCount.increment();
+        if (start != null) {
+            long elapsed = System.nanoTime() - start;
+            commitTime.add(elapsed);
+            commitTimeMax.accumulateAndGet(elapsed, Math::max);
+        }
+    }
+
+    @Nullable
+    private SystemInfo systemInfo() {
+        ObjectContainer current = objectContainer;
+        return current != null && !current.ext().isClosed() ? current.ext().systemInfo() : null;
+    }
+
+    private static double average(long totalNanos, long count) {
+        return count > 0 ? toMillis(totalNanos) / count : 0d;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000000d;
+    }
+
+    /**
+     * Counts events and their rate over the last {@code RATE_WINDOW} seconds.
+     */
+    private static final class RateMeter {
+        private final LongAdder total = new LongAdder();
+        private final AtomicLongArray seconds = new AtomicLongArray(RATE_WINDOW);
+        private final AtomicLongArray counts = new AtomicLongArray(RATE_WINDOW);
+
+        private void mark() {
+            total.increment();
+            long second = currentSecond();
+            int slot = (int) (second % RATE_WINDOW);
+            long previous = seconds.get(slot);
+            if (previous != second && seconds.compareAndSet(slot, previous, second)) {
+                counts.set(slot, 0L);
+            }
+            counts.incrementAndGet(slot);
+        }
+
+        private long count() {
+            return total.sum();
+        }
+
+        private double rate() {
+            long now = currentSecond();
+            long sum = 0;
+            for (int i = 0; i < RATE_WINDOW; i++) {
+                if (now - seconds.get(i) < RATE_WINDOW) {
+                    sum += counts.get(i);
+                }
+            }
+            return sum / (double) RATE_WINDOW;
+        }
+
+        private void reset() {
+            total.reset();
+            for (int i = 0; i < RATE_WINDOW; i++) {
+                seconds.set(i, 0L);
+                counts.set(i, 0L);
+            }
+        }
+
+        private static long currentSecond() {
+            return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.events.CommitEventArgs;
+import com.db4o.events.EventListener4;
+import com.db4o.events.EventRegistryFactory;
+import com.db4o.ext.ObjectInfo;
+import com.db4o.ext.ObjectInfoCollection;
+import com.db4o.foundation.Iterator4;
+import com.db4o.query.Predicate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Remembers the IDs matched by queries of a single dataSource, keyed by the queried type and the predicate.
+ * Predicates act as keys, thus they should implement {@code equals()} and {@code hashCode()} over their
+ * parameters; predicates that don't are only ever found again through the very same instance.
+ * <p>
+ * Entries are dropped once a commit adds, updates or deletes an object of their type, or of a subtype, and
+ * the least recently used entry makes room once {@code query_cache_size} entries are held. Commits that only
+ * touch objects of other types leave entries alone, even when their predicate looks at such objects. A query
+ * that was running while a commit of its type landed does not store its results. Switching to another root container, as
+ * happens when the dataSource is reopened, drops all entries since IDs may have changed in between.
+ *
+ * @author Andres Almiray
+ */
+final class ObjectContainerQueryCache {
+    static final String KEY_QUERY_CACHE_SIZE = "query_cache_size";
+
+    private final String dataSourceName;
+    private final QueryCacheStatistics statistics;
+    private final Map<QueryKey, long[]> entries;
+    private final Map<Object, Class<?>> loading = new IdentityHashMap<>();
+    private final EventListener4<CommitEventArgs> committed = (event, args) -> committed(args);
+    private final Object attachLock = new Object();
+    private ObjectContainer objectContainer;
+
+    ObjectContainerQueryCache(@Nonnull String dataSourceName, int maxSize) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.statistics = new QueryCacheStatistics(maxSize, this::size);
+        this.entries = new LinkedHashMap<QueryKey, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryKey, long[]> eldest) {
+                if (size() > maxSize) {
+                    statistics.evicted();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Nonnull
+    String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Nonnull
+    QueryCacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Returns the cached IDs for the given query, running it on a miss.
+     *
+     * @param objectContainer the dataSource's root container, whose commits invalidate entries
+     * @param query           runs the query against committed state only
+     */
+    @Nonnull
+    long[] get(@Nonnull ObjectContainer objectContainer, @Nonnull Class<?> type, @Nonnull Predicate<?> predicate, @Nonnull Supplier<long[]> query) {
+        attach(objectContainer);
+        QueryKey key = new QueryKey(type, predicate);
+        Object token = new Object();
+        synchronized (this) {
+            long[] ids = entries.get(key);
+            if (ids != null) {
+                statistics.hit();
+                return ids;
+            }
+            statistics.miss();
+            loading.put(token, type);
+        }
+
+        long[] ids = null;
+        try {
+            ids = query.get();
+            return ids;
+        } finally {
+            synchronized (this) {
+                // a commit touching the type while the query ran has taken the token away
+                if (loading.remove(token) != null && ids != null && this.objectContainer == objectContainer) {
+                    entries.put(key, ids);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all entries and stops listening to commits.
+     */
+    void clear() {
+        synchronized (attachLock) {
+            detach(swap(null));
+        }
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    // db4o calls happen outside this object's monitor, commits hold the container's lock while notifying listeners
+    private void attach(@Nonnull ObjectContainer objectContainer) {
+        synchronized (attachLock) {
+            synchronized (this) {
+                if (this.objectContainer == objectContainer) {
+                    return;
+                }
+            }
+            EventRegistryFactory.forObjectContainer(objectContainer).committed().addListener(committed);
+            detach(swap(objectContainer));
+        }
+    }
+
+    @Nullable
+    private synchronized ObjectContainer swap(@Nullable ObjectContainer objectContainer) {
+        ObjectContainer previous = this.objectContainer;
+        this.objectContainer = objectContainer;
+        entries.clear();
+        loading.clear();
+        return previous;
+    }
+
+    private void detach(@Nullable ObjectContainer objectContainer) {
+        if (objectContainer != null && !objectContainer.ext().isClosed()) {
+            EventRegistryFactory.forObjectContainer(objectContainer).committed().removeListener(committed);
+        }
+    }
+
+    private void committed(@Nonnull CommitEventArgs args) {
+        Set<Class<?>> classes = new HashSet<>();
+        // objects no longer held by the reference system can't tell their class
+        boolean unknown = collectClasses(args.added(), classes) | collectClasses(args.updated(), classes) | collectClasses(args.deleted(), classes);
+        if (!unknown && classes.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            int size = entries.size();
+            entries.keySet().removeIf(key -> unknown || key.isAffectedBy(classes));
+            statistics.invalidated(size - entries.size());
+            loading.values().removeIf(type -> unknown || isAffected(type, classes));
+        }
+    }
+
+    private static boolean collectClasses(@Nullable ObjectInfoCollection infos, @Nonnull Set<Class<?>> classes) {
+        if (infos == null) {
+            return false;
+        }
+
+        boolean unknown = false;
+        Iterator4<?> iterator = infos.iterator();
+        while (iterator.moveNext()) {
+            Object object = ((ObjectInfo) iterator.current()).getObject();
+            if (object != null) {
+                classes.add(object.getClass());
+            } else {
+                unknown = true;
+            }
+        }
+        return unknown;
+    }
+
+    private static boolean isAffected(@Nonnull Class<?> type, @Nonnull Collection<Class<?>> classes) {
+        for (Class<?> candidate : classes) {
+            if (type.isAssignableFrom(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class QueryKey {
+        private final Class<?> type;
+        private final Predicate<?> predicate;
+        private final int hash;
+
+        private QueryKey(@Nonnull Class<?> type, @Nonnull Predicate<?> predicate) {
+            this.type = requireNonNull(type, "Argument 'type' must not be null");
+            this.predicate = requireNonNull(predicate, "Argument 'predicate' must not be null");
+            this.hash = 31 * (31 * type.hashCode() + predicate.getClass().hashCode()) + predicate.hashCode();
+        }
+
+        private boolean isAffectedBy(@Nonnull Collection<Class<?>> classes) {
+            return isAffected(type, classes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey other = (QueryKey) o;
+            return type == other.type && predicate.getClass() == other.predicate.getClass() && predicate.equals(other.predicate);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
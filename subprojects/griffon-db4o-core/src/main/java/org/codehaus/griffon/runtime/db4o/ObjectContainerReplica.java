@@ -0,0 +1,249 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.Db4oEmbedded;
+import com.db4o.ObjectContainer;
+import com.db4o.config.EmbeddedConfiguration;
+import com.db4o.io.FileStorage;
+import griffon.plugins.db4o.ObjectContainerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static griffon.util.ConfigUtils.getConfigValueAsLong;
+import static griffon.util.ConfigUtils.getConfigValueAsString;
+import static griffon.util.GriffonNameUtils.isBlank;
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+import static org.codehaus.griffon.runtime.db4o.EmbeddedConfigurationSupport.invalid;
+
+/**
+ * Serves a read-only copy of another dataSource. The primary is copied with {@code ext().backup()} into a
+ * fresh snapshot file every {@code replica_refresh_interval} milliseconds; callbacks running on the previous
+ * snapshot finish undisturbed while new ones move on to the fresh copy. Snapshots are only refreshed while the
+ * primary is open, thus an idle primary is never reopened just to be copied.
+ *
+ * @author Andres Almiray
+ */
+class ObjectContainerReplica {
+    static final String KEY_REPLICA_OF = "replica_of";
+    static final String KEY_REPLICA_REFRESH_INTERVAL = "replica_refresh_interval";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectContainerReplica.class);
+    private static final long DEFAULT_REFRESH_INTERVAL = 60000L;
+
+    private final String dataSourceName;
+    private final String primaryName;
+    private final Map<String, Object> config;
+    private final Consumer<ObjectContainerCallback<Void>> primary;
+    private final BooleanSupplier primaryOpen;
+    private final File basefile;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final Object refreshLock = new Object();
+    private final ScheduledExecutorService scheduler;
+    private volatile Snapshot current;
+    private volatile boolean closed;
+
+    /**
+     * @param primary     runs a callback against the primary dataSource
+     * @param primaryOpen tells whether the primary dataSource is currently open
+     */
+    ObjectContainerReplica(@Nonnull String dataSourceName, @Nonnull Map<String, Object> config, @Nonnull Consumer<ObjectContainerCallback<Void>> primary, @Nonnull BooleanSupplier primaryOpen) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.config = requireNonNull(config, "Argument 'config' must not be null");
+        this.primary = requireNonNull(primary, "Argument 'primary' must not be null");
+        this.primaryOpen = requireNonNull(primaryOpen, "Argument 'primaryOpen' must not be null");
+        this.primaryName = getPrimaryName(config);
+        if (isBlank(primaryName) || primaryName.equals(dataSourceName)) {
+            throw invalid(dataSourceName, KEY_REPLICA_OF, primaryName, "must name another dataSource");
+        }
+
+        long refreshInterval = getConfigValueAsLong(config, KEY_REPLICA_REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL);
+        if (refreshInterval < 1) {
+            throw invalid(dataSourceName, KEY_REPLICA_REFRESH_INTERVAL, refreshInterval, "must be greater than zero");
+        }
+
+        File file = new File(getConfigValueAsString(config, "name", dataSourceName + ".yarv"));
+        this.basefile = file.isAbsolute() ? file : new File(System.getProperty("user.dir"), file.getPath());
+        this.basefile.getParentFile().mkdirs();
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db4o-" + dataSourceName + "-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::scheduledRefresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Nullable
+    static String getPrimaryName(@Nonnull Map<String, Object> config) {
+        return getConfigValueAsString(config, KEY_REPLICA_OF, null);
+    }
+
+    @Nonnull
+    String getPrimaryName() {
+        return primaryName;
+    }
+
+    @Nullable
+    <R> R withSnapshot(@Nonnull ObjectContainerCallback<R> callback) {
+        Snapshot snapshot = acquire();
+        try {
+            return DefaultObjectContainerHandler.doWithObjectContainer(dataSourceName, snapshot.getObjectContainer(), callback);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    /**
+     * Copies the primary into a new snapshot and makes it current.
+     */
+    void refresh() {
+        synchronized (refreshLock) {
+            if (closed) {
+                return;
+            }
+
+            File file = new File(basefile.getPath() + "." + sequence.incrementAndGet());
+            file.delete();
+            LOG.debug("Copying objectContainer '{}' into replica '{}'", primaryName, dataSourceName);
+            primary.accept((name, objectContainer) -> {
+                objectContainer.ext().backup(new FileStorage(), file.getAbsolutePath());
+                return null;
+            });
+
+            EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration();
+            EmbeddedConfigurationSupport.applyTo(dataSourceName, config, configuration);
+            configuration.file().readOnly(true);
+            configuration.file().lockDatabaseFile(false);
+            Snapshot snapshot = new Snapshot(Db4oEmbedded.openFile(configuration, file.getAbsolutePath()), file);
+
+            Snapshot previous = current;
+            current = snapshot;
+            if (previous != null) {
+                previous.retire();
+            }
+        }
+    }
+
+    void close() {
+        synchronized (refreshLock) {
+            closed = true;
+            scheduler.shutdownNow();
+            Snapshot previous = current;
+            current = null;
+            if (previous != null) {
+                previous.retire();
+            }
+        }
+    }
+
+    /**
+     * Leases the current snapshot. The lease must be given back with {@link Snapshot#release()}.
+     */
+    @Nonnull
+    Snapshot acquire() {
+        for (; ; ) {
+            Snapshot snapshot = current;
+            if (snapshot == null) {
+                if (closed) {
+                    throw new IllegalStateException("Replica '" + dataSourceName + "' has been closed");
+                }
+                refresh();
+                continue;
+            }
+            if (snapshot.tryAcquire()) {
+                return snapshot;
+            }
+            // retired while we were looking at it, the next one is already in place
+        }
+    }
+
+    private void scheduledRefresh() {
+        if (!primaryOpen.getAsBoolean()) {
+            return;
+        }
+        try {
+            refresh();
+        } catch (RuntimeException e) {
+            LOG.warn("Could not refresh replica '{}' of objectContainer '{}'. Serving the previous snapshot", dataSourceName, primaryName, e);
+        }
+    }
+
+    final class Snapshot {
+        private final ObjectContainer objectContainer;
+        private final File file;
+        // one reference is held by the replica itself until the snapshot is retired
+        private final AtomicInteger references = new AtomicInteger(1);
+        private final AtomicBoolean retired = new AtomicBoolean();
+
+        private Snapshot(@Nonnull ObjectContainer objectContainer, @Nonnull File file) {
+            this.objectContainer = objectContainer;
+            this.file = file;
+        }
+
+        @Nonnull
+        ObjectContainer getObjectContainer() {
+            return objectContainer;
+        }
+
+        private boolean tryAcquire() {
+            for (; ; ) {
+                int count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                dispose();
+            }
+        }
+
+        private void retire() {
+            if (retired.compareAndSet(false, true)) {
+                release();
+            }
+        }
+
+        private void dispose() {
+            LOG.debug("Discarding snapshot {} of replica '{}'", file.getName(), dataSourceName);
+            try {
+                objectContainer.close();
+            } catch (RuntimeException e) {
+                LOG.warn("Could not close snapshot {} of replica '{}'", file.getName(), dataSourceName, e);
+            }
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Supplier;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps a bounded set of idle db4o sessions opened on top of a root {@code ObjectContainer}, or of idle
+ * client connections when the dataSource is a {@code client}.
+ * Each borrowed session has its own transaction and reference cache; pending changes are
+ * rolled back when a session is returned so that the next borrower starts with a clean slate.
+ *
+ * @author Andres Almiray
+ */
+class ObjectContainerSessionPool {
+    private static final Logger LOG = LoggerFactory.getLogger(ObjectContainerSessionPool.class);
+
+    private final String dataSourceName;
+    private final ObjectContainer objectContainer;
+    private final Supplier<ObjectContainer> sessionFactory;
+    private final BlockingQueue<ObjectContainer> idleSessions;
+    private volatile boolean closed;
+
+    ObjectContainerSessionPool(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer, int maxIdleSessions) {
+        this(dataSourceName, objectContainer, maxIdleSessions, () -> objectContainer.ext().openSession());
+    }
+
+    /**
+     * @param sessionFactory opens a new session whenever there is no idle one
+     */
+    ObjectContainerSessionPool(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer, int maxIdleSessions, @Nonnull Supplier<ObjectContainer> sessionFactory) {
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.objectContainer = requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        this.sessionFactory = requireNonNull(sessionFactory, "Argument 'sessionFactory' must not be null");
+        if (maxIdleSessions < 1) {
+            throw new IllegalArgumentException("Invalid session pool size " + maxIdleSessions + " for dataSource '" + dataSourceName + "'");
+        }
+        this.idleSessions = new ArrayBlockingQueue<>(maxIdleSessions);
+    }
+
+    @Nonnull
+    ObjectContainer getObjectContainer() {
+        return objectContainer;
+    }
+
+    @Nonnull
+    ObjectContainer borrow() {
+        if (closed) {
+            throw new IllegalStateException("Session pool for dataSource '" + dataSourceName + "' has been closed");
+        }
+
+        ObjectContainer session;
+        while ((session = idleSessions.poll()) != null) {
+            if (!session.ext().isClosed()) {
+                return session;
+            }
+        }
+
+        LOG.trace("Opening new session on objectContainer '{}'", dataSourceName);
+        return sessionFactory.get();
+    }
+
+    void release(@Nonnull ObjectContainer session) {
+        if (session.ext().isClosed()) {
+            return;
+        }
+
+        try {
+            session.rollback();
+        } catch (RuntimeException e) {
+            LOG.warn("Could not rollback session on objectContainer '{}'", dataSourceName, e);
+            closeQuietly(session);
+            return;
+        }
+
+        if (closed || !idleSessions.offer(session)) {
+            closeQuietly(session);
+        } else if (closed) {
+            // pool was closed while the session was being returned
+            drain();
+        }
+    }
+
+    void close() {
+        closed = true;
+        drain();
+    }
+
+    private void drain() {
+        ObjectContainer session;
+        while ((session = idleSessions.poll()) != null) {
+            closeQuietly(session);
+        }
+    }
+
+    private void closeQuietly(@Nonnull ObjectContainer session) {
+        try {
+            session.close();
+        } catch (RuntimeException e) {
+            LOG.warn("Could not close session on objectContainer '{}'", dataSourceName, e);
+        }
+    }
+}
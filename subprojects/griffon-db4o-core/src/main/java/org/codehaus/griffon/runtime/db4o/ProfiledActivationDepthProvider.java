@@ -0,0 +1,246 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.events.EventListener4;
+import com.db4o.events.EventRegistryFactory;
+import com.db4o.events.ObjectInfoEventArgs;
+import com.db4o.internal.ClassMetadata;
+import com.db4o.internal.InternalObjectContainer;
+import com.db4o.internal.ObjectContainerBase;
+import com.db4o.internal.Transaction;
+import com.db4o.internal.activation.ActivationDepth;
+import com.db4o.internal.activation.ActivationDepthProvider;
+import com.db4o.internal.activation.ActivationMode;
+import com.db4o.internal.activation.NonDescendingActivationDepth;
+import com.db4o.internal.activation.TransparentActivationDepthProvider;
+import com.db4o.ta.RollbackStrategy;
+import griffon.plugins.db4o.ActivationProfile;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Takes the place of a root container's {@code ActivationDepthProvider} so that the depth of implicit activations
+ * can be chosen per call. The profile of the running call is kept in a thread local, calls without a profile, and
+ * every other thread, get the activation depths of the original provider.
+ *
+ * @author Andres Almiray
+ */
+class ProfiledActivationDepthProvider implements ActivationDepthProvider {
+    private final ActivationDepthProvider delegate;
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<>();
+    private final EventListener4<ObjectInfoEventArgs> activated = (event, args) -> {
+        Scope scope = scopes.get();
+        if (scope != null && scope.activated != null) {
+            scope.activated.add(args.object());
+        }
+    };
+
+    private ProfiledActivationDepthProvider(@Nonnull ActivationDepthProvider delegate) {
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    /**
+     * @return the provider of the root container behind the given container or session, installed on first use
+     */
+    @Nonnull
+    static ProfiledActivationDepthProvider install(@Nonnull ObjectContainer objectContainer) {
+        ObjectContainerBase container = ((InternalObjectContainer) requireNonNull(objectContainer, "Argument 'objectContainer' must not be null")).container();
+        synchronized (container.lock()) {
+            ActivationDepthProvider current = container.configImpl().activationDepthProvider();
+            if (current instanceof ProfiledActivationDepthProvider) {
+                return (ProfiledActivationDepthProvider) current;
+            }
+
+            // transparent activation and persistence look the provider up by its interface
+            ProfiledActivationDepthProvider provider = current instanceof TransparentActivationDepthProvider ?
+                new Transparent((TransparentActivationDepthProvider) current) : new ProfiledActivationDepthProvider(current);
+            container.configImpl().activationDepthProvider(provider);
+            EventRegistryFactory.forObjectContainer(container).activated().addListener(provider.activated);
+            return provider;
+        }
+    }
+
+    /**
+     * Runs the action with the given profile, then releases whatever the profile asks to release, even if the
+     * action fails.
+     */
+    <R> R apply(@Nonnull ObjectContainer objectContainer, @Nonnull ActivationProfile profile, @Nonnull Supplier<R> action) {
+        requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        requireNonNull(action, "Argument 'action' must not be null");
+        boolean transparent = delegate instanceof TransparentActivationDepthProvider;
+        if (Boolean.TRUE.equals(profile.getTransparentActivation()) && !transparent) {
+            throw new IllegalArgumentException("Transparent activation cannot be turned on for a container that is not configured for it");
+        }
+
+        Scope previous = scopes.get();
+        Scope scope = new Scope(profile, transparent);
+        scopes.set(scope);
+        try {
+            return action.get();
+        } finally {
+            if (previous != null) {
+                scopes.set(previous);
+            } else {
+                scopes.remove();
+            }
+            release(objectContainer, scope);
+        }
+    }
+
+    @Override
+    public ActivationDepth activationDepthFor(ClassMetadata classMetadata, ActivationMode mode) {
+        Scope scope = scopes.get();
+        if (scope == null || !mode.isActivate()) {
+            return delegate.activationDepthFor(classMetadata, mode);
+        }
+        if (scope.transparentActivation && isTransparent(classMetadata, mode)) {
+            return new NonDescendingActivationDepth(mode);
+        }
+        Integer classDepth = scope.depthFor(classMetadata);
+        return new ProfiledActivationDepth(scope, classDepth != null ? classDepth : scope.depth, mode);
+    }
+
+    @Override
+    public ActivationDepth activationDepth(int depth, ActivationMode mode) {
+        return delegate.activationDepth(depth, mode);
+    }
+
+    private boolean isTransparent(@Nonnull ClassMetadata classMetadata, @Nonnull ActivationMode mode) {
+        return delegate.activationDepthFor(classMetadata, mode) instanceof NonDescendingActivationDepth;
+    }
+
+    private static void release(@Nonnull ObjectContainer objectContainer, @Nonnull Scope scope) {
+        if (scope.activated == null || scope.activated.isEmpty() || objectContainer.ext().isClosed()) {
+            return;
+        }
+        for (Object object : scope.activated) {
+            if (scope.release == ActivationProfile.Release.PURGE) {
+                objectContainer.ext().purge(object);
+            } else {
+                objectContainer.deactivate(object, 1);
+            }
+        }
+    }
+
+    private static final class Scope {
+        private final int depth;
+        private final Map<String, Integer> classDepths = new HashMap<>();
+        private final boolean transparentActivation;
+        private final ActivationProfile.Release release;
+        private final List<Object> activated;
+
+        private Scope(@Nonnull ActivationProfile profile, boolean transparent) {
+            this.depth = profile.getDepth();
+            for (Map.Entry<Class<?>, Integer> entry : profile.getClassDepths().entrySet()) {
+                classDepths.put(entry.getKey().getName(), entry.getValue());
+            }
+            Boolean requested = profile.getTransparentActivation();
+            this.transparentActivation = requested != null ? requested : transparent;
+            this.release = profile.getRelease();
+            this.activated = release != ActivationProfile.Release.NONE ? new ArrayList<>() : null;
+        }
+
+        private Integer depthFor(ClassMetadata classMetadata) {
+            if (classDepths.isEmpty()) {
+                return null;
+            }
+            for (ClassMetadata c = classMetadata; c != null; c = c.getAncestor()) {
+                Integer classDepth = classDepths.get(c.getName());
+                if (classDepth != null) {
+                    return classDepth;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Counts down like db4o's legacy activation depth. Class depths cap the remaining depth of the objects they
+     * apply to.
+     */
+    private final class ProfiledActivationDepth implements ActivationDepth {
+        private final Scope scope;
+        private final int depth;
+        private final ActivationMode mode;
+
+        private ProfiledActivationDepth(@Nonnull Scope scope, int depth, @Nonnull ActivationMode mode) {
+            this.scope = scope;
+            this.depth = depth;
+            this.mode = mode;
+        }
+
+        @Override
+        public ActivationMode mode() {
+            return mode;
+        }
+
+        @Override
+        public boolean requiresActivation() {
+            return depth > 0;
+        }
+
+        @Override
+        public ActivationDepth descend(ClassMetadata classMetadata) {
+            if (classMetadata == null) {
+                return new ProfiledActivationDepth(scope, depth - 1, mode);
+            }
+            if (scope.transparentActivation && isTransparent(classMetadata, mode)) {
+                return new NonDescendingActivationDepth(mode);
+            }
+
+            int next = depth - 1;
+            Integer classDepth = scope.depthFor(classMetadata);
+            if (classDepth != null) {
+                next = Math.min(next, classDepth);
+            }
+            // structs are always read along with the object that holds them
+            return new ProfiledActivationDepth(scope, classMetadata.isStruct() ? Math.max(1, next) : next, mode);
+        }
+    }
+
+    private static final class Transparent extends ProfiledActivationDepthProvider implements TransparentActivationDepthProvider {
+        private final TransparentActivationDepthProvider delegate;
+
+        private Transparent(@Nonnull TransparentActivationDepthProvider delegate) {
+            super(delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void enableTransparentPersistenceSupportFor(InternalObjectContainer container, RollbackStrategy rollbackStrategy) {
+            delegate.enableTransparentPersistenceSupportFor(container, rollbackStrategy);
+        }
+
+        @Override
+        public void addModified(Object object, Transaction transaction) {
+            delegate.addModified(object, transaction);
+        }
+
+        @Override
+        public void removeModified(Object object, Transaction transaction) {
+            delegate.removeModified(object, transaction);
+        }
+    }
+}
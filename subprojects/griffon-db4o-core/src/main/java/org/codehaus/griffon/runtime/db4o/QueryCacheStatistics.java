@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Hit and miss counts of a dataSource's query cache. Counts survive reconnections.
+ *
+ * @author Andres Almiray
+ */
+public final class QueryCacheStatistics {
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+    private final int maxSize;
+    private final IntSupplier size;
+
+    QueryCacheStatistics(int maxSize, IntSupplier size) {
+        this.maxSize = maxSize;
+        this.size = size;
+    }
+
+    void hit() {
+        hitCount.increment();
+    }
+
+    void miss() {
+        missCount.increment();
+    }
+
+    void evicted() {
+        evictionCount.increment();
+    }
+
+    void invalidated(int count) {
+        invalidationCount.add(count);
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total > 0 ? hits / (double) total : 0d;
+    }
+
+    /**
+     * @return number of entries dropped to make room for newer ones
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * @return number of entries dropped because a commit touched their class
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public void reset() {
+        hitCount.reset();
+        missCount.reset();
+        evictionCount.reset();
+        invalidationCount.reset();
+    }
+}
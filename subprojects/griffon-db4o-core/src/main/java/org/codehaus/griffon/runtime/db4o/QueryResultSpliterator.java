@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.ext.InvalidIDException;
+
+import javax.annotation.Nonnull;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Walks the IDs of a query result one page at a time. Each page is fetched and activated when the walk reaches
+ * it and deactivated once the walk moves past it, thus no more than {@code pageSize} objects are kept active.
+ * Objects deleted after the query ran are skipped. Whatever the walk holds on to is given back as soon as the walk
+ * is over, be it because the results ran out, because it failed or because it was closed early.
+ *
+ * @author Andres Almiray
+ */
+final class QueryResultSpliterator<T> implements Spliterator<T> {
+    private final ObjectContainer objectContainer;
+    private final Class<T> type;
+    private final long[] ids;
+    private final int activationDepth;
+    private final Object[] page;
+    private final Runnable release;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private int pageSize;
+    private int pageIndex;
+    private int next;
+
+    QueryResultSpliterator(@Nonnull ObjectContainer objectContainer, @Nonnull Class<T> type, @Nonnull long[] ids, int pageSize, int activationDepth, @Nonnull Runnable release) {
+        this.objectContainer = requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        this.type = requireNonNull(type, "Argument 'type' must not be null");
+        this.ids = requireNonNull(ids, "Argument 'ids' must not be null");
+        this.activationDepth = activationDepth;
+        this.page = new Object[pageSize];
+        this.release = requireNonNull(release, "Argument 'release' must not be null");
+    }
+
+    @Override
+    public boolean tryAdvance(@Nonnull Consumer<? super T> action) {
+        requireNonNull(action, "Argument 'action' must not be null");
+        if (closed.get()) {
+            return false;
+        }
+        try {
+            while (true) {
+                if (pageIndex < pageSize) {
+                    Object object = page[pageIndex++];
+                    if (object != null) {
+                        action.accept(type.cast(object));
+                        return true;
+                    }
+                    continue;
+                }
+
+                deactivatePage();
+                if (next >= ids.length) {
+                    close();
+                    return false;
+                }
+                fetchPage();
+            }
+        } catch (RuntimeException | Error e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Spliterator<T> trySplit() {
+        // objects have to be activated on the container's own terms, one page after the other
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return ids.length - next + (pageSize - pageIndex);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Deactivates the current page and releases the resources backing the walk. Safe to call more than once.
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!objectContainer.ext().isClosed()) {
+                deactivatePage();
+            }
+            next = ids.length;
+        } finally {
+            release.run();
+        }
+    }
+
+    private void fetchPage() {
+        pageSize = Math.min(page.length, ids.length - next);
+        pageIndex = 0;
+        for (int i = 0; i < pageSize; i++) {
+            Object object;
+            try {
+                object = objectContainer.ext().getByID(ids[next++]);
+            } catch (InvalidIDException e) {
+                object = null;
+            }
+            if (object != null) {
+                objectContainer.activate(object, activationDepth);
+            }
+            page[i] = object;
+        }
+    }
+
+    private void deactivatePage() {
+        for (int i = 0; i < pageSize; i++) {
+            if (page[i] != null) {
+                objectContainer.deactivate(page[i], activationDepth);
+                page[i] = null;
+            }
+        }
+        pageSize = 0;
+        pageIndex = 0;
+    }
+}
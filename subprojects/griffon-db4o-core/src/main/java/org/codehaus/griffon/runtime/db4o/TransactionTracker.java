@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o;
+
+import com.db4o.ObjectContainer;
+import com.db4o.events.CommitEventArgs;
+import com.db4o.events.EventListener4;
+import com.db4o.events.EventRegistry;
+import com.db4o.events.EventRegistryFactory;
+import com.db4o.events.ObjectInfoEventArgs;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tells whether a transaction has stored or deleted objects since it was last committed, so that transactional
+ * callbacks that only read skip the commit and the file sync that comes with it. Listens to the object events of
+ * the dataSource's root container, which are raised for its sessions as well, and only keeps track of the
+ * transactions of running callbacks.
+ *
+ * @author Andres Almiray
+ */
+final class TransactionTracker {
+    private final ConcurrentMap<Object, Tracking> tracked = new ConcurrentHashMap<>();
+    private final EventListener4<ObjectInfoEventArgs> changed = (event, args) -> mark(args.transaction(), true);
+    private final EventListener4<CommitEventArgs> committing = (event, args) -> mark(args.transaction(), false);
+    private ObjectContainer objectContainer;
+
+    /**
+     * Starts listening to the given root container, unless already doing so.
+     */
+    synchronized void attach(@Nonnull ObjectContainer objectContainer) {
+        requireNonNull(objectContainer, "Argument 'objectContainer' must not be null");
+        if (this.objectContainer == objectContainer) {
+            return;
+        }
+
+        EventRegistry registry = EventRegistryFactory.forObjectContainer(objectContainer);
+        registry.created().addListener(changed);
+        registry.updated().addListener(changed);
+        registry.deleted().addListener(changed);
+        registry.committing().addListener(committing);
+
+        ObjectContainer previous = this.objectContainer;
+        this.objectContainer = objectContainer;
+        if (previous != null && !previous.ext().isClosed()) {
+            EventRegistry previousRegistry = EventRegistryFactory.forObjectContainer(previous);
+            previousRegistry.created().removeListener(changed);
+            previousRegistry.updated().removeListener(changed);
+            previousRegistry.deleted().removeListener(changed);
+            previousRegistry.committing().removeListener(committing);
+        }
+    }
+
+    void begin(@Nonnull Object transaction) {
+        tracked.compute(transaction, (key, tracking) -> {
+            Tracking current = tracking != null ? tracking : new Tracking();
+            current.users++;
+            return current;
+        });
+    }
+
+    boolean isDirty(@Nonnull Object transaction) {
+        Tracking tracking = tracked.get(transaction);
+        return tracking != null && tracking.dirty;
+    }
+
+    void rolledBack(@Nonnull Object transaction) {
+        mark(transaction, false);
+    }
+
+    void end(@Nonnull Object transaction) {
+        tracked.computeIfPresent(transaction, (key, tracking) -> --tracking.users > 0 ? tracking : null);
+    }
+
+    private void mark(@Nonnull Object transaction, boolean dirty) {
+        Tracking tracking = tracked.get(transaction);
+        if (tracking != null) {
+            tracking.dirty = dirty;
+        }
+    }
+
+    private static final class Tracking {
+        private int users;
+        private volatile boolean dirty;
+    }
+}
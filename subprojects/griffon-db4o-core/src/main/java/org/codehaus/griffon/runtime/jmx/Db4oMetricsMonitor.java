@@ -0,0 +1,70 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.db4o.CallbackStatistics;
+import org.codehaus.griffon.runtime.db4o.InMemoryDb4oMetrics;
+import org.codehaus.griffon.runtime.monitor.AbstractObjectMonitor;
+
+import javax.annotation.Nonnull;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class Db4oMetricsMonitor extends AbstractObjectMonitor<InMemoryDb4oMetrics> implements Db4oMetricsMonitorMXBean {
+    private final InMemoryDb4oMetrics delegate;
+
+    public Db4oMetricsMonitor(@Nonnull Metadata metadata, @Nonnull InMemoryDb4oMetrics delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public InMemoryDb4oMetrics getMonitoredObject() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("griffon.core:type=Db4oCallbacks,application=" + getMetadata().getApplicationName() + ",name=callbacks");
+    }
+
+    @Override
+    public Map<String, CallbackStatistics> getDataSourceStatistics() {
+        return delegate.getDataSourceStatistics();
+    }
+
+    @Override
+    public Map<String, CallbackStatistics> getCallbackStatistics(String dataSourceName) {
+        return delegate.getCallbackStatistics(dataSourceName);
+    }
+
+    @Override
+    public Map<String, Integer> getInFlight() {
+        return delegate.getInFlight();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import org.codehaus.griffon.runtime.db4o.CallbackStatistics;
+
+import java.util.Map;
+
+/**
+ * Timings of {@code withDb4o} callbacks on instrumented dataSources. Times are given in milliseconds.
+ *
+ * @author Andres Almiray
+ */
+public interface Db4oMetricsMonitorMXBean {
+    Map<String, CallbackStatistics> getDataSourceStatistics();
+
+    Map<String, CallbackStatistics> getCallbackStatistics(String dataSourceName);
+
+    Map<String, Integer> getInFlight();
+
+    void reset();
+}
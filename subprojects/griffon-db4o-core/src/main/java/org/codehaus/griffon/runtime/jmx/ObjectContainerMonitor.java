@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.db4o.ObjectContainerMetrics;
+import org.codehaus.griffon.runtime.monitor.AbstractObjectMonitor;
+
+import javax.annotation.Nonnull;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class ObjectContainerMonitor extends AbstractObjectMonitor<ObjectContainerMetrics> implements ObjectContainerMonitorMXBean {
+    private final ObjectContainerMetrics delegate;
+
+    public ObjectContainerMonitor(@Nonnull Metadata metadata, @Nonnull ObjectContainerMetrics delegate) {
+        super(metadata);
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public ObjectContainerMetrics getMonitoredObject() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("griffon.core:type=Db4o,application=" + getMetadata().getApplicationName() + ",name=" + ObjectName.quote(delegate.getDataSourceName()));
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return delegate.getDataSourceName();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegate.getObjectContainer() != null;
+    }
+
+    @Override
+    public long getQueryCount() {
+        return delegate.getQueryCount();
+    }
+
+    @Override
+    public double getQueryTimeAverage() {
+        return delegate.getQueryTimeAverage();
+    }
+
+    @Override
+    public double getQueryTimeMax() {
+        return delegate.getQueryTimeMax();
+    }
+
+    @Override
+    public Map<String, Long> getQueryLatencyHistogram() {
+        return delegate.getQueryLatencyHistogram();
+    }
+
+    @Override
+    public long getStoredCount() {
+        return delegate.getStoredCount();
+    }
+
+    @Override
+    public double getStoredPerSecond() {
+        return delegate.getStoredPerSecond();
+    }
+
+    @Override
+    public long getActivatedCount() {
+        return delegate.getActivatedCount();
+    }
+
+    @Override
+    public double getActivatedPerSecond() {
+        return delegate.getActivatedPerSecond();
+    }
+
+    @Override
+    public long getCommitCount() {
+        return delegate.getCommitCount();
+    }
+
+    @Override
+    public double getCommitTimeAverage() {
+        return delegate.getCommitTimeAverage();
+    }
+
+    @Override
+    public double getCommitTimeMax() {
+        return delegate.getCommitTimeMax();
+    }
+
+    @Override
+    public long getFreespaceSize() {
+        return delegate.getFreespaceSize();
+    }
+
+    @Override
+    public long getFileSize() {
+        return delegate.getFileSize();
+    }
+
+    @Override
+    public int getReferenceCacheSize() {
+        return delegate.getReferenceCacheSize();
+    }
+
+    @Override
+    public Map<String, Long> getDiagnostics() {
+        return delegate.getDiagnostics();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+}
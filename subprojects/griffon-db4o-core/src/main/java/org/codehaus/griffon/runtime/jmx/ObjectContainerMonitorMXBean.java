@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import java.util.Map;
+
+/**
+ * Performance figures of a single dataSource. Times are given in milliseconds.
+ *
+ * @author Andres Almiray
+ */
+public interface ObjectContainerMonitorMXBean {
+    String getDataSourceName();
+
+    boolean isOpen();
+
+    long getQueryCount();
+
+    double getQueryTimeAverage();
+
+    double getQueryTimeMax();
+
+    Map<String, Long> getQueryLatencyHistogram();
+
+    long getStoredCount();
+
+    double getStoredPerSecond();
+
+    long getActivatedCount();
+
+    double getActivatedPerSecond();
+
+    long getCommitCount();
+
+    double getCommitTimeAverage();
+
+    double getCommitTimeMax();
+
+    long getFreespaceSize();
+
+    long getFileSize();
+
+    int getReferenceCacheSize();
+
+    Map<String, Long> getDiagnostics();
+
+    void reset();
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.jmx;
+
+import griffon.core.env.Metadata;
+import org.codehaus.griffon.runtime.db4o.QueryCacheStatistics;
+import org.codehaus.griffon.runtime.monitor.AbstractObjectMonitor;
+
+import javax.annotation.Nonnull;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import static griffon.util.GriffonNameUtils.requireNonBlank;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * @author Andres Almiray
+ */
+public class QueryCacheMonitor extends AbstractObjectMonitor<QueryCacheStatistics> implements QueryCacheMonitorMXBean {
+    private final String dataSourceName;
+    private final QueryCacheStatistics delegate;
+
+    public QueryCacheMonitor(@Nonnull Metadata metadata, @Nonnull String dataSourceName, @Nonnull QueryCacheStatistics delegate) {
+        super(metadata);
+        this.dataSourceName = requireNonBlank(dataSourceName, "Argument 'dataSourceName' must not be blank");
+        this.delegate = requireNonNull(delegate, "Argument 'delegate' must not be null");
+    }
+
+    @Override
+    public QueryCacheStatistics getMonitoredObject() {
+        return delegate;
+    }
+
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("griffon.core:type=Db4oQueryCache,application=" + getMetadata().getApplicationName() + ",name=" + ObjectName.quote(dataSourceName));
+    }
+
+    @Override
+    public String getDataSourceName() {
+        return dataSourceName;
+    }
+
+    @Override
+    public int getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return delegate.getMaxSize();
+    }
+
+    @Override
+    public long getHitCount() {
+        return delegate.getHitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return delegate.getMissCount();
+    }
+
+    @Override
+    public double getHitRatio() {
+        return delegate.getHitRatio();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return delegate.getEvictionCount();
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return delegate.getInvalidationCount();
+    }
+
+    @Override
+    public void reset() {
+        delegate.reset();
+    }
+}
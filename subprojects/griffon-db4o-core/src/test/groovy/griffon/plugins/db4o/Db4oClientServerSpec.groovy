@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o
+
+import com.db4o.ObjectContainer
+import griffon.core.test.GriffonUnitRule
+import org.junit.Rule
+import spock.lang.Requires
+import spock.lang.Specification
+
+import javax.inject.Inject
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+@Requires({ Db4oClientServerSpec.classLoader.getResource('com/db4o/cs/Db4oClientServer.class') })
+class Db4oClientServerSpec extends Specification {
+    static {
+        System.setProperty('org.slf4j.simpleLogger.defaultLogLevel', 'trace')
+        // a free port keeps concurrent builds on the same host from clashing
+        int port = new ServerSocket(0).withCloseable { ServerSocket socket -> socket.localPort }
+        System.setProperty('griffon.db4o.test.port', String.valueOf(port))
+    }
+
+    @Rule
+    public final GriffonUnitRule griffon = new GriffonUnitRule()
+
+    @Inject
+    private ObjectContainerHandler objectContainerHandler
+
+    @Inject
+    private Db4oBulkService db4oBulkService
+
+    void cleanup() {
+        objectContainerHandler.closeDb4o('client')
+        objectContainerHandler.closeDb4o('server')
+    }
+
+    void 'Clients see objects committed through a loopback server'() {
+        given:
+        objectContainerHandler.withDb4o('server') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.commit()
+        }
+
+        when:
+        List<String> names = objectContainerHandler.withDb4o('client') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person)*.name
+        }
+
+        then:
+        names == ['Danno']
+    }
+
+    void 'Concurrent client callbacks get their own connection'() {
+        given:
+        int threads = 2
+        CountDownLatch inside = new CountDownLatch(threads)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        List<Future> futures = (0..<threads).collect { int t ->
+            executor.submit({
+                objectContainerHandler.withDb4o('client') { String dataSourceName, ObjectContainer objectContainer ->
+                    inside.countDown()
+                    inside.await()
+                    objectContainer.store(new Person(id: t.toString(), name: 'name' + t, lastname: 'lastname' + t))
+                    objectContainer.commit()
+                    objectContainer
+                }
+            } as Callable)
+        }
+        List clients = futures*.get()
+
+        and:
+        int stored = objectContainerHandler.withDb4o('server') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        clients.unique(false) { System.identityHashCode(it) }.size() == threads
+        stored == threads
+
+        cleanup:
+        executor.shutdownNow()
+    }
+
+    void 'Clients import objects through a pooled connection'() {
+        when:
+        long imported = db4oBulkService.importObjects('client', (1..10).collect { new Person(id: it as String, name: 'Danno', lastname: 'Ferrin') }.iterator())
+
+        and:
+        int stored = objectContainerHandler.withDb4o('server') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        imported == 10
+        stored == 10
+    }
+}
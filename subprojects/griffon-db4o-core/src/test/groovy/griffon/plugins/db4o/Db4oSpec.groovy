@@ -15,16 +15,35 @@
  */
 package griffon.plugins.db4o
 
+import com.db4o.Db4oEmbedded
 import com.db4o.ObjectContainer
+import com.db4o.events.EventRegistryFactory
+import com.db4o.ext.DatabaseClosedException
+import com.db4o.ext.DatabaseReadOnlyException
+import com.db4o.query.Predicate
 import griffon.core.CallableWithArgs
 import griffon.core.GriffonApplication
 import griffon.core.test.GriffonUnitRule
 import griffon.inject.BindTo
+import griffon.plugins.db4o.ids.LongIdMap
+import griffon.plugins.db4o.ids.LongIdSet
+import groovy.json.JsonSlurper
+import org.codehaus.griffon.runtime.db4o.InMemoryDb4oMetrics
+import org.codehaus.griffon.runtime.db4o.QueryCacheStatistics
 import org.junit.Rule
 import spock.lang.Specification
 import spock.lang.Unroll
 
 import javax.inject.Inject
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.stream.Stream
 
 @Unroll
 class Db4oSpec extends Specification {
@@ -38,6 +57,27 @@ class Db4oSpec extends Specification {
     @Inject
     private ObjectContainerHandler objectContainerHandler
 
+    @Inject
+    private ObjectContainerFactory objectContainerFactory
+
+    @Inject
+    private Db4oBatchWriter db4oBatchWriter
+
+    @Inject
+    private Db4oBackupService db4oBackupService
+
+    @Inject
+    private Db4oDefragmentService db4oDefragmentService
+
+    @Inject
+    private Db4oBulkService db4oBulkService
+
+    @Inject
+    private Db4oMetrics db4oMetrics
+
+    @Inject
+    private ObjectContainerStorage objectContainerStorage
+
     @Inject
     private GriffonApplication application
 
@@ -67,6 +107,21 @@ class Db4oSpec extends Specification {
         events.name == eventNames
     }
 
+    void 'DataSources flagged with connect_on_startup are open once startup is done'() {
+        given:
+        assert !objectContainerStorage.get('startup')
+
+        when:
+        application.addonManager.findAddon('db4o').onStartupStart(application)
+
+        then:
+        objectContainerStorage.get('startup')
+        !objectContainerStorage.get('memory')
+
+        cleanup:
+        objectContainerHandler.closeDb4o('startup')
+    }
+
     void 'Connect to default dataSource'() {
         expect:
         objectContainerHandler.withDb4o { String dataSourceName, ObjectContainer objectContainer ->
@@ -111,6 +166,7 @@ class Db4oSpec extends Specification {
         'default'  | _
         'internal' | _
         'people'   | _
+        'memory'   | _
     }
 
     void 'Bogus dataSource name (#name) results in error'() {
@@ -155,6 +211,640 @@ class Db4oSpec extends Specification {
         objectContainerHandler.closeDb4o()
     }
 
+    void 'Declared indexes are applied to the people dataSource'() {
+        when:
+        boolean indexed = objectContainerHandler.withDb4o('people') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.ext().storedClass(Person).storedField('lastname', null).hasIndex()
+        }
+
+        then:
+        indexed
+
+        cleanup:
+        objectContainerHandler.withDb4o('people') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.rollback()
+        }
+    }
+
+    void 'Concurrent callers open each dataSource exactly once'() {
+        given:
+        List<String> names = ['default', 'internal', 'people']
+        int threads = 24
+        int iterations = 20
+        CountDownLatch start = new CountDownLatch(1)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        List<Future> futures = (0..<threads).collect { int t ->
+            executor.submit({
+                start.await()
+                (0..<iterations).each { int i ->
+                    String name = names[(t + i) % names.size()]
+                    objectContainerHandler.withDb4o(name) { String dataSourceName, ObjectContainer objectContainer ->
+                        objectContainer.query(Person).size()
+                    }
+                }
+                true
+            } as Callable)
+        }
+        start.countDown()
+
+        then:
+        futures*.get().every { it }
+        names.every { bootstrap.initCount(it) == 1 }
+
+        cleanup:
+        executor.shutdownNow()
+        names.each { objectContainerHandler.closeDb4o(it) }
+    }
+
+    void 'Session mode hands each concurrent callback its own session'() {
+        given:
+        int threads = 4
+        CountDownLatch inside = new CountDownLatch(threads)
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        List<Future> futures = (0..<threads).collect { int t ->
+            executor.submit({
+                objectContainerHandler.withDb4o('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+                    inside.countDown()
+                    inside.await()
+                    objectContainer.store(new Person(id: t.toString(), name: 'name' + t, lastname: 'lastname' + t))
+                    objectContainer.commit()
+                    objectContainer
+                }
+            } as Callable)
+        }
+        List sessions = futures*.get()
+
+        and:
+        int stored = objectContainerHandler.withDb4o('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        sessions.unique(false) { System.identityHashCode(it) }.size() == threads
+        stored == threads
+
+        cleanup:
+        executor.shutdownNow()
+        objectContainerHandler.closeDb4o('sessions')
+    }
+
+    void 'Transactional callbacks commit changes, roll back failures and skip commits when nothing changed'() {
+        given:
+        AtomicInteger commits = new AtomicInteger()
+        objectContainerHandler.withDb4o('sessions') { String dataSourceName, ObjectContainer objectContainer -> true }
+        EventRegistryFactory.forObjectContainer(objectContainerStorage.get('sessions')).committing().addListener { event, args -> commits.incrementAndGet() }
+
+        when:
+        objectContainerHandler.withDb4oTransaction('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+        }
+        objectContainerHandler.withDb4oTransaction('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '2', name: 'Andres', lastname: 'Almiray'))
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(IllegalStateException)
+        commits.get() == 1
+
+        when:
+        int stored = objectContainerHandler.withDb4oTransaction('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        stored == 1
+        commits.get() == 1
+
+        cleanup:
+        objectContainerHandler.closeDb4o('sessions')
+    }
+
+    void 'Transactional callbacks are retried once the container turns out to be closed'() {
+        given:
+        int attempts = 0
+
+        when:
+        String result = objectContainerHandler.withDb4oTransaction('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            if (++attempts < 3) {
+                throw new DatabaseClosedException()
+            }
+            'done'
+        }
+
+        then:
+        result == 'done'
+        attempts == 3
+
+        cleanup:
+        objectContainerHandler.closeDb4o('sessions')
+    }
+
+    void 'Transactional callbacks leave changes of other callers alone and are timed once'() {
+        given:
+        InMemoryDb4oMetrics metrics = (InMemoryDb4oMetrics) db4oMetrics
+        metrics.reset()
+        Person pending = new Person(id: '1', name: 'Danno', lastname: 'Ferrin')
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(pending)
+        }
+
+        when:
+        objectContainerHandler.withDb4oTransaction('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '2', name: 'Andres', lastname: 'Almiray'))
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(IllegalStateException)
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.ext().isStored(pending)
+        }
+
+        when:
+        objectContainerHandler.withDb4oTransaction('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '3', name: 'Ixchel', lastname: 'Ruiz'))
+        }
+        ObjectContainer session = objectContainerStorage.get('memory').ext().openSession()
+        List<String> committed = session.query(Person)*.id
+        session.close()
+
+        then:
+        committed == ['3']
+        metrics.dataSourceStatistics.memory.count == 4
+        metrics.getCallbackStatistics('memory').keySet().every { !it.startsWith('org.codehaus.griffon.runtime.db4o.') }
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Callbacks run with an activation profile are timed as themselves'() {
+        given:
+        InMemoryDb4oMetrics metrics = (InMemoryDb4oMetrics) db4oMetrics
+        metrics.reset()
+
+        when:
+        boolean handled = objectContainerHandler.withDb4oActivation('memory', ActivationProfile.depth(1)) { String dataSourceName, ObjectContainer objectContainer ->
+            true
+        }
+
+        then:
+        handled
+        metrics.dataSourceStatistics.memory.count == 1
+        metrics.getCallbackStatistics('memory').keySet().every { !it.startsWith('org.codehaus.griffon.runtime.db4o.') }
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Streamed query results are activated one page at a time'() {
+        given:
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            (1..25).each { objectContainer.store(new Person(id: it as String, name: 'Danno', lastname: 'Ferrin')) }
+            objectContainer.commit()
+        }
+        List<Person> seen = []
+        List<Integer> ids = []
+        int maxActive = 0
+
+        when:
+        Stream<Person> stream = objectContainerHandler.streamQuery('memory', Person, { Person person -> person.id.toInteger() > 5 } as Predicate, 10)
+        stream.forEach { Person person ->
+            seen << person
+            ids << person.id.toInteger()
+            maxActive = Math.max(maxActive, seen.count { it.name != null } as int)
+        }
+        stream.close()
+
+        then:
+        ids.sort() == (6..25).toList()
+        maxActive <= 10
+        seen.every { it.name == null }
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Cached queries are served from the cache until a commit touches their class'() {
+        given:
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.store(new Person(id: '2', name: 'Andres', lastname: 'Almiray'))
+            objectContainer.store(new Person(id: '3', name: 'Jon', lastname: 'Ferrin'))
+            objectContainer.commit()
+        }
+        QueryCacheStatistics statistics = objectContainerHandler.getQueryCacheStatistics('memory')
+
+        when:
+        List<Person> first = objectContainerHandler.cachedQuery('memory', Person, new PersonsByLastname(lastname: 'Ferrin'))
+        List<Person> second = objectContainerHandler.cachedQuery('memory', Person, new PersonsByLastname(lastname: 'Ferrin'))
+
+        then:
+        first*.id.sort() == ['1', '3']
+        second*.id.sort() == ['1', '3']
+        second.every { it.name != null }
+        statistics.missCount == 1
+        statistics.hitCount == 1
+
+        when:
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '4', name: 'Kim', lastname: 'Ferrin'))
+            objectContainer.commit()
+        }
+        List<Person> third = objectContainerHandler.cachedQuery('memory', Person, new PersonsByLastname(lastname: 'Ferrin'))
+
+        then:
+        third*.id.sort() == ['1', '3', '4']
+        statistics.invalidationCount == 1
+        statistics.missCount == 2
+
+        when:
+        objectContainerHandler.cachedQuery('memory', Person, new PersonsByLastname(lastname: 'Almiray'))
+        objectContainerHandler.cachedQuery('memory', Person, new PersonsByLastname(lastname: 'Shemitz'))
+
+        then:
+        statistics.evictionCount == 1
+        statistics.size == 2
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Objects are fetched and deleted in bulk by ID'() {
+        given:
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            (1..10).each { objectContainer.store(new Person(id: it as String, name: 'Danno', lastname: it % 2 ? 'Ferrin' : 'Almiray')) }
+            objectContainer.commit()
+        }
+
+        when:
+        LongIdSet ferrins = objectContainerHandler.queryIDs('memory', Person, new PersonsByLastname(lastname: 'Ferrin'))
+        LongIdMap<Person> people = objectContainerHandler.getByIDs('memory', Person, ferrins)
+        int deleted = objectContainerHandler.deleteByIDs('memory', ferrins)
+        int left = objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        ferrins.size() == 5
+        people.keySet() == ferrins
+        people.values()*.id.sort() == ['1', '3', '5', '7', '9']
+        people.values().every { it.name == 'Danno' }
+        deleted == 5
+        left == 5
+        objectContainerHandler.deleteByIDs('memory', ferrins) == 0
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Memory storage keeps data without touching the file system'() {
+        when:
+        int stored = objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.commit()
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        stored == 1
+        !new File(System.getProperty('user.dir'), objectContainerFactory.getConfigurationFor('memory').name).exists()
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Async callbacks run outside of the calling thread'() {
+        when:
+        String threadName = objectContainerHandler.withDb4oAsync('async') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.commit()
+            Thread.currentThread().name
+        }.get(10, TimeUnit.SECONDS)
+
+        then:
+        threadName.startsWith('db4o-async-async-')
+        threadName != Thread.currentThread().name
+
+        cleanup:
+        objectContainerHandler.closeDb4o('async')
+    }
+
+    void 'Async callbacks are rejected once the queue is full'() {
+        given:
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+
+        when:
+        Future first = objectContainerHandler.withDb4oAsync('async') { String dataSourceName, ObjectContainer objectContainer ->
+            running.countDown()
+            release.await()
+            1
+        }
+        running.await()
+        Future second = objectContainerHandler.withDb4oAsync('async') { String dataSourceName, ObjectContainer objectContainer -> 2 }
+        objectContainerHandler.withDb4oAsync('async') { String dataSourceName, ObjectContainer objectContainer -> 3 }
+
+        then:
+        thrown(RejectedExecutionException)
+
+        when:
+        release.countDown()
+
+        then:
+        first.get(10, TimeUnit.SECONDS) == 1
+        second.get(10, TimeUnit.SECONDS) == 2
+
+        cleanup:
+        release.countDown()
+        objectContainerHandler.closeDb4o('async')
+    }
+
+    void 'Batched writes from many threads are grouped into few commits'() {
+        given:
+        int threads = 8
+        int writes = 50
+        AtomicInteger commits = new AtomicInteger()
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            EventRegistryFactory.forObjectContainer(objectContainer).committed().addListener { event, args -> commits.incrementAndGet() }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads)
+
+        when:
+        List<Future> futures = (0..<threads).collect { int t ->
+            executor.submit({
+                (0..<writes).collect { int i ->
+                    db4oBatchWriter.store('memory', new Person(id: "$t-$i", name: 'name' + i, lastname: 'lastname' + t))
+                }*.get(10, TimeUnit.SECONDS)
+                true
+            } as Callable)
+        }
+        futures*.get()
+
+        and:
+        int stored = objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        stored == threads * writes
+        commits.get() < threads * writes
+
+        cleanup:
+        executor.shutdownNow()
+        db4oBatchWriter.close('memory')
+        objectContainerHandler.closeDb4o('memory')
+    }
+
+    void 'Callbacks on instrumented dataSources are timed'() {
+        given:
+        InMemoryDb4oMetrics metrics = (InMemoryDb4oMetrics) db4oMetrics
+        metrics.reset()
+
+        when:
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            assert metrics.getInFlight('memory') == 1
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+        }
+        objectContainerHandler.withDb4o('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            throw new IllegalStateException('boom')
+        }
+
+        then:
+        thrown(IllegalStateException)
+        metrics.dataSourceStatistics.memory.count == 2
+        metrics.dataSourceStatistics.memory.failureCount == 1
+        metrics.getCallbackStatistics('memory').values()*.count.sum() == 2
+        metrics.getInFlight('memory') == 0
+
+        when:
+        objectContainerHandler.withDb4o('internal') { String dataSourceName, ObjectContainer objectContainer -> true }
+
+        then:
+        !metrics.dataSourceStatistics.containsKey('internal')
+
+        cleanup:
+        objectContainerHandler.closeDb4o('memory')
+        objectContainerHandler.closeDb4o('internal')
+    }
+
+    void 'Read-only callbacks are served from a snapshot of the primary'() {
+        given:
+        objectContainerHandler.withDb4o('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.commit()
+        }
+
+        when:
+        List names = objectContainerHandler.withDb4oReadOnly('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            [dataSourceName, objectContainer.query(Person).size()]
+        }
+        objectContainerHandler.withDb4o('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '2', name: 'Andres', lastname: 'Almiray'))
+            objectContainer.commit()
+        }
+        int refreshed = 0
+        for (int i = 0; i < 50 && refreshed < 2; i++) {
+            sleep(100)
+            refreshed = objectContainerHandler.withDb4oReadOnly('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+                objectContainer.query(Person).size()
+            }
+        }
+        objectContainerHandler.withDb4oReadOnly('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '3', name: 'James', lastname: 'Williams'))
+            objectContainer.commit()
+        }
+
+        then:
+        names == ['reports', 1]
+        refreshed == 2
+        thrown(DatabaseReadOnlyException)
+
+        cleanup:
+        objectContainerHandler.closeDb4o('reports')
+        objectContainerHandler.closeDb4o('ledger')
+    }
+
+    void 'Online backups are announced and rotated'() {
+        given:
+        List events = []
+        ['Db4oBackupStart', 'Db4oBackupEnd', 'Db4oBackupFailure'].each { String name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << name
+            } as CallableWithArgs)
+        }
+        objectContainerHandler.withDb4o('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            objectContainer.commit()
+        }
+
+        when:
+        List<File> files = (1..3).collect { db4oBackupService.backup('ledger').get(10, TimeUnit.SECONDS) }
+        ObjectContainer copy = Db4oEmbedded.openFile(Db4oEmbedded.newConfiguration(), files[-1].absolutePath)
+        int stored = copy.query(Person).size()
+        copy.close()
+
+        then:
+        stored == 1
+        events == ['Db4oBackupStart', 'Db4oBackupEnd'] * 3
+        db4oBackupService.getBackups('ledger') == files[2..1]
+        !files[0].exists()
+
+        cleanup:
+        objectContainerHandler.closeDb4o('ledger')
+        db4oBackupService.getBackups('ledger')*.delete()
+    }
+
+    void 'Defragmenting reclaims freed space and keeps the data'() {
+        given:
+        List events = []
+        ['Db4oDefragmentStart', 'Db4oDefragmentEnd', 'Db4oDefragmentFailure'].each { String name ->
+            application.eventRouter.addEventListener(name, { Object... args ->
+                events << name
+            } as CallableWithArgs)
+        }
+        objectContainerHandler.withDb4o('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            (1..500).each { objectContainer.store(new Person(id: it as String, name: 'Danno', lastname: 'Ferrin')) }
+            objectContainer.commit()
+            objectContainer.query(Person).findAll { it.id.toInteger() > 10 }.each { objectContainer.delete(it) }
+            objectContainer.commit()
+        }
+
+        when:
+        DefragmentResult result = db4oDefragmentService.defragment('ledger').get(30, TimeUnit.SECONDS)
+        int stored = objectContainerHandler.withDb4o('ledger') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(Person).size()
+        }
+
+        then:
+        result.bytesReclaimed > 0
+        result.sizeAfter < result.sizeBefore
+        result.swapTime <= result.elapsedTime
+        stored == 10
+        events == ['Db4oDefragmentStart', 'Db4oDefragmentEnd']
+
+        cleanup:
+        objectContainerHandler.closeDb4o('ledger')
+    }
+
+    void 'Bulk imports commit in chunks and exports write one record per object'() {
+        given:
+        AtomicInteger commits = new AtomicInteger()
+        objectContainerHandler.withDb4o('sessions') { String dataSourceName, ObjectContainer objectContainer -> true }
+        EventRegistryFactory.forObjectContainer(objectContainerStorage.get('sessions')).committed().addListener { event, args ->
+            if (args.added().iterator().moveNext()) commits.incrementAndGet()
+        }
+        File ndjson = File.createTempFile('people-', '.ndjson')
+        File binary = File.createTempFile('people-', '.bin')
+
+        when:
+        long imported = db4oBulkService.importObjects('sessions', (1..120).parallelStream().map { new Person(id: it as String, name: 'Danno', lastname: 'Ferrin') })
+        long exported = db4oBulkService.exportObjects('sessions', Person, ndjson.toPath(), ExportFormat.NDJSON)
+        db4oBulkService.exportObjects('sessions', Person, binary.toPath(), ExportFormat.BINARY)
+        List records = ndjson.readLines().collect { new JsonSlurper().parseText(it) }
+
+        then:
+        imported == 120
+        commits.get() == 3
+        exported == 120
+        records*.'@class'.unique() == [Person.name]
+        records*.id.sort { it as int } == (1..120)*.toString()
+        records.every { it.'@id' > 0 && it.lastname == 'Ferrin' }
+        new String(binary.bytes, 0, 4, 'US-ASCII') == 'DB4X'
+        binary.length() < ndjson.length()
+
+        cleanup:
+        objectContainerHandler.closeDb4o('sessions')
+        [ndjson, binary]*.delete()
+    }
+
+    void 'Activation profiles choose how deep a call activates and what it releases'() {
+        given:
+        objectContainerHandler.withDb4o('sessions') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new Team(name: 'core', lead: new Person(id: '1', name: 'Danno', lastname: 'Ferrin')))
+            objectContainer.commit()
+            objectContainer.ext().purge()
+        }
+        Closure<Map> names = { String dataSourceName, ObjectContainer objectContainer ->
+            Team team = objectContainer.query(Team)[0]
+            [team: team.name, lead: team.lead?.name]
+        }
+        List released = []
+
+        when:
+        Map shallow = objectContainerHandler.withDb4oActivation('sessions', ActivationProfile.depth(1).withRelease(ActivationProfile.Release.PURGE), names)
+        Map capped = objectContainerHandler.withDb4oActivation('sessions', ActivationProfile.depth(5).withDepth(Person, 0).withRelease(ActivationProfile.Release.PURGE), names)
+        Map deep = objectContainerHandler.withDb4oActivation('sessions', ActivationProfile.depth(2).withRelease(ActivationProfile.Release.DEACTIVATE)) { String dataSourceName, ObjectContainer objectContainer ->
+            Team team = objectContainer.query(Team)[0]
+            released << team << team.lead
+            [team: team.name, lead: team.lead.name]
+        }
+
+        then:
+        shallow == [team: 'core', lead: null]
+        capped == [team: 'core', lead: null]
+        deep == [team: 'core', lead: 'Danno']
+        released*.name == [null, null]
+
+        when:
+        objectContainerHandler.withDb4oActivation('sessions', ActivationProfile.depth(1).withTransparentActivation(true), names)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        objectContainerHandler.closeDb4o('sessions')
+    }
+
+    void 'Shutdown drains running callbacks and gives up on slow closes'() {
+        given:
+        List timeouts = []
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch closed = new CountDownLatch(1)
+        application.eventRouter.addEventListener('Db4oCloseTimeout', { Object... args ->
+            timeouts << args[0]
+        } as CallableWithArgs)
+        application.eventRouter.addEventListener('Db4oDisconnectStart', { Object... args ->
+            if (args[0] == 'async') sleep(1000)
+        } as CallableWithArgs)
+        application.eventRouter.addEventListener('Db4oDisconnectEnd', { Object... args ->
+            if (args[0] == 'async') closed.countDown()
+        } as CallableWithArgs)
+        objectContainerHandler.withDb4o('async') { String dataSourceName, ObjectContainer objectContainer -> true }
+        Future slow = objectContainerHandler.withDb4oAsync('memory') { String dataSourceName, ObjectContainer objectContainer ->
+            running.countDown()
+            sleep(200)
+            objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+            true
+        }
+        running.await()
+
+        when:
+        application.addonManager.findAddon('db4o').onShutdownStart(application)
+
+        then:
+        slow.isDone()
+        slow.get()
+        !objectContainerStorage.get('memory')
+        timeouts == ['async']
+
+        cleanup:
+        closed.await(10, TimeUnit.SECONDS)
+    }
+
+    void 'Batch writers are rejected for dataSources that hand out sessions'() {
+        when:
+        db4oBatchWriter.store('sessions', new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
     @BindTo(Db4oBootstrap)
     private TestDb4oBootstrap bootstrap = new TestDb4oBootstrap()
 }
@@ -18,14 +18,23 @@ package griffon.plugins.db4o
 import com.db4o.ObjectContainer
 
 import javax.annotation.Nonnull
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicInteger
 
 class TestDb4oBootstrap implements Db4oBootstrap {
     boolean initWitness
     boolean destroyWitness
+    final ConcurrentMap<String, AtomicInteger> initCounts = new ConcurrentHashMap<>()
 
     @Override
     void init(@Nonnull String dataSourceName, @Nonnull ObjectContainer objectContainer) {
         initWitness = true
+        initCounts.computeIfAbsent(dataSourceName) { new AtomicInteger() }.incrementAndGet()
+    }
+
+    int initCount(String dataSourceName) {
+        initCounts.get(dataSourceName)?.get() ?: 0
     }
 
     @Override
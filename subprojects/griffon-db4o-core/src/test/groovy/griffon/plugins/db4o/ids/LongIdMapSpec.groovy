@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o.ids
+
+import spock.lang.Specification
+
+class LongIdMapSpec extends Specification {
+    void 'Behaves like a Map<Long, V> under random puts and removes'() {
+        given:
+        Random random = new Random(42)
+        LongIdMap<String> map = new LongIdMap<>(4)
+        Map<Long, String> expected = [:]
+
+        when:
+        100000.times {
+            long id = random.nextInt(5000) * 4096L
+            if (random.nextBoolean()) {
+                assert map.put(id, 'v' + it) == expected.put(id, 'v' + it)
+            } else {
+                assert map.remove(id) == expected.remove(id)
+            }
+        }
+        Map<Long, String> entries = [:]
+        map.forEach { long id, String value -> entries[id] = value }
+
+        then:
+        map.size() == expected.size()
+        entries == expected
+        map.keySet() == LongIdSet.of(expected.keySet() as long[])
+        map.values().sort() == expected.values().sort()
+        (0L..<5000L).every { map.get(it * 4096L) == expected.get(it * 4096L) }
+    }
+
+    void 'Null values are rejected'() {
+        when:
+        new LongIdMap<String>().put(1L, null)
+
+        then:
+        thrown(NullPointerException)
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.db4o.ids
+
+import spock.lang.Specification
+
+class LongIdSetSpec extends Specification {
+    void 'Behaves like a Set<Long> under random adds and removes'() {
+        given:
+        Random random = new Random(42)
+        LongIdSet ids = new LongIdSet(4)
+        Set<Long> expected = new HashSet<>()
+
+        when:
+        100000.times {
+            long id = random.nextInt(5000) * 4096L
+            if (random.nextBoolean()) {
+                assert ids.add(id) == expected.add(id)
+            } else {
+                assert ids.remove(id) == expected.remove(id)
+            }
+        }
+
+        then:
+        ids.size() == expected.size()
+        ids.toArray().toList().toSet() == expected
+        ids.stream().count() == expected.size()
+        (0L..<5000L).every { ids.contains(it * 4096L) == expected.contains(it * 4096L) }
+        ids.hashCode() == expected.hashCode()
+    }
+
+    void 'Set operations diff and join ID sets'() {
+        given:
+        LongIdSet left = LongIdSet.of(0L, 1L, 2L, 3L, 4L)
+        LongIdSet right = LongIdSet.of(3L, 4L, 5L)
+
+        when:
+        LongIdSet union = LongIdSet.of(left.toArray())
+        union.addAll(right)
+        LongIdSet intersection = LongIdSet.of(left.toArray())
+        intersection.retainAll(right)
+        LongIdSet difference = LongIdSet.of(left.toArray())
+        difference.removeAll(right)
+
+        then:
+        union == LongIdSet.of(0L, 1L, 2L, 3L, 4L, 5L)
+        intersection == LongIdSet.of(3L, 4L)
+        difference == LongIdSet.of(0L, 1L, 2L)
+        difference.toArray().toList().sort() == [0L, 1L, 2L]
+    }
+
+    void 'Set operations against the set itself'() {
+        given:
+        LongIdSet retained = LongIdSet.of(0L, 1L, 2L, 3L)
+        LongIdSet removed = LongIdSet.of(0L, 1L, 2L, 3L)
+        LongIdSet filtered = LongIdSet.of(0L, 1L, 2L, 3L)
+
+        when:
+        boolean retainChanged = retained.retainAll(retained)
+        boolean removeChanged = removed.removeAll(removed)
+        boolean filterChanged = filtered.removeIf { long id -> id > 0L && filtered.contains(id - 1L) }
+
+        then:
+        !retainChanged
+        retained == LongIdSet.of(0L, 1L, 2L, 3L)
+        removeChanged
+        removed.empty
+        !removed.removeAll(removed)
+        filterChanged
+        filtered == LongIdSet.of(0L)
+    }
+
+    void 'Iterators fail fast once the set changes'() {
+        given:
+        LongIdSet ids = LongIdSet.of(1L, 2L)
+        PrimitiveIterator.OfLong iterator = ids.iterator()
+
+        when:
+        ids.add(3L)
+        iterator.nextLong()
+
+        then:
+        thrown(ConcurrentModificationException)
+    }
+}
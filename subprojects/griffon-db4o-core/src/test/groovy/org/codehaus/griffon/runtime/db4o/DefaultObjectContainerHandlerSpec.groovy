@@ -0,0 +1,446 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o
+
+import com.db4o.Db4oEmbedded
+import com.db4o.ObjectContainer
+import com.db4o.config.EmbeddedConfiguration
+import com.db4o.io.MemoryStorage
+import com.db4o.query.Predicate
+import griffon.core.Configuration
+import griffon.plugins.db4o.ObjectContainerFactory
+import spock.lang.Specification
+
+import javax.annotation.Nonnull
+import java.util.concurrent.Callable
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.stream.Stream
+
+class DefaultObjectContainerHandlerSpec extends Specification {
+    private TestObjectContainerFactory factory = new TestObjectContainerFactory()
+    private DefaultObjectContainerStorage storage = new DefaultObjectContainerStorage()
+    private CallbackTrackers callbackTrackers = new CallbackTrackers()
+
+    void cleanup() {
+        storage.keys.each { storage.get(it).close() }
+    }
+
+    void 'Idle containers are closed and reopened on demand'() {
+        given:
+        factory.configs.idle = [idle_timeout: 100]
+        factory.configs.busy = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+
+        when:
+        handler.withDb4o('idle') { String dataSourceName, ObjectContainer objectContainer -> true }
+        handler.withDb4o('busy') { String dataSourceName, ObjectContainer objectContainer -> true }
+        waitFor { !storage.contains('idle') }
+
+        then:
+        factory.destroyed == ['idle']
+        storage.contains('busy')
+
+        when:
+        handler.withDb4o('idle') { String dataSourceName, ObjectContainer objectContainer -> true }
+
+        then:
+        factory.created == ['idle', 'busy', 'idle']
+    }
+
+    void 'Least recently used containers are closed once max_open_containers is reached'() {
+        given:
+        ['a', 'b', 'c'].each { factory.configs[it] = [:] }
+        DefaultObjectContainerHandler handler = createHandler(2)
+
+        when:
+        handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+        handler.withDb4o('b') { String dataSourceName, ObjectContainer objectContainer -> true }
+        handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+        handler.withDb4o('c') { String dataSourceName, ObjectContainer objectContainer -> true }
+
+        then:
+        factory.destroyed == ['b']
+        storage.keys.sort() == ['a', 'c']
+    }
+
+    void 'Containers with running callbacks are not evicted'() {
+        given:
+        ['a', 'b'].each { factory.configs[it] = [:] }
+        DefaultObjectContainerHandler handler = createHandler(1)
+
+        when:
+        handler.withDb4o('a') { String dataSourceName, ObjectContainer outer ->
+            handler.withDb4o('b') { String name, ObjectContainer inner -> true }
+        }
+
+        then:
+        factory.destroyed == []
+        storage.keys.sort() == ['a', 'b']
+    }
+
+    void 'Containers that lose their data when closed are not evicted'() {
+        given:
+        factory.configs.memory = [storage: 'memory']
+        factory.configs.scratch = [delete: true]
+        factory.configs.c = [:]
+        DefaultObjectContainerHandler handler = createHandler(1)
+
+        when:
+        ['memory', 'scratch', 'c'].each { handler.withDb4o(it) { String dataSourceName, ObjectContainer objectContainer -> true } }
+
+        then:
+        factory.destroyed == []
+        storage.keys.sort() == ['c', 'memory', 'scratch']
+    }
+
+    void 'Idle timeouts are rejected for servers and containers that lose their data when closed'() {
+        given:
+        factory.configs.a = config + [idle_timeout: 100]
+
+        when:
+        createHandler(0)
+
+        then:
+        IllegalArgumentException e = thrown()
+        e.message.contains('idle_timeout')
+
+        where:
+        config << [[storage: 'memory'], [delete: true], [type: 'server']]
+    }
+
+    void 'Queued asynchronous callbacks outlive the eviction of their container'() {
+        given:
+        ['a', 'b'].each { factory.configs[it] = [async_pool_size: 1, async_queue_size: 4] }
+        DefaultObjectContainerHandler handler = createHandler(1)
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch finish = new CountDownLatch(1)
+        CompletableFuture<Boolean> first = handler.withDb4oAsync('a') { String dataSourceName, ObjectContainer objectContainer ->
+            running.countDown()
+            finish.await()
+            true
+        }
+        running.await()
+        CompletableFuture<Boolean> queued = handler.withDb4oAsync('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+        finish.countDown()
+        first.get(5, TimeUnit.SECONDS)
+
+        when:
+        handler.withDb4o('b') { String dataSourceName, ObjectContainer objectContainer -> true }
+
+        then:
+        queued.get(5, TimeUnit.SECONDS)
+    }
+
+    void 'Exclusive actions wait for running callbacks and hold new ones'() {
+        given:
+        factory.configs.a = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        List<String> order = [].asSynchronized()
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch finish = new CountDownLatch(1)
+        Thread.start {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer ->
+                running.countDown()
+                finish.await()
+                order << 'running'
+            }
+        }
+        running.await()
+
+        when:
+        Thread exclusive = Thread.start {
+            callbackTrackers.runExclusively('a', 5, TimeUnit.SECONDS) { order << 'exclusive' }
+        }
+        sleep(50)
+        Thread late = Thread.start {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> order << 'late' }
+        }
+        sleep(50)
+        finish.countDown()
+        [exclusive, late]*.join(5000)
+
+        then:
+        order == ['running', 'exclusive', 'late']
+    }
+
+    void 'Exclusive actions give up when callbacks outlive the timeout'() {
+        given:
+        factory.configs.a = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch finish = new CountDownLatch(1)
+        Thread.start {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer ->
+                running.countDown()
+                finish.await()
+            }
+        }
+        running.await()
+
+        when:
+        boolean claimed = callbackTrackers.runExclusively('a', 50, TimeUnit.MILLISECONDS) { throw new IllegalStateException() }
+        boolean served = handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+
+        then:
+        !claimed
+        served
+
+        cleanup:
+        finish.countDown()
+    }
+
+    void 'Callbacks nested in a running one are not held by exclusive actions'() {
+        given:
+        factory.configs.a = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        List<String> order = [].asSynchronized()
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch draining = new CountDownLatch(1)
+        Thread outer = Thread.start {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer ->
+                running.countDown()
+                draining.await()
+                sleep(50)
+                handler.withDb4o('a') { String name, ObjectContainer inner -> order << 'nested' }
+                order << 'outer'
+            }
+        }
+        running.await()
+
+        when:
+        boolean claimed = false
+        Thread exclusive = Thread.start {
+            draining.countDown()
+            claimed = callbackTrackers.runExclusively('a', 5, TimeUnit.SECONDS) { order << 'exclusive' }
+        }
+        [outer, exclusive]*.join(5000)
+
+        then:
+        claimed
+        order == ['nested', 'outer', 'exclusive']
+    }
+
+    void 'Streams give back what they hold once their results run out'() {
+        given:
+        factory.configs.a = [session_mode: true]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        storeItems(handler, 'a', 5)
+        List<Integer> values = []
+
+        when:
+        handler.streamQuery('a', Item, new ItemAbove(2), 2).forEach { Item item -> values << item.value }
+
+        then:
+        values.sort() == [3, 4, 5]
+        callbackTrackers.get('a').running == 0
+    }
+
+    void 'Streams give back what they hold when they fail'() {
+        given:
+        factory.configs.a = [session_mode: true]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        storeItems(handler, 'a', 5)
+
+        when:
+        handler.streamQuery('a', Item, new ItemAbove(0), 2).forEach { Item item -> throw new IllegalStateException() }
+
+        then:
+        thrown(IllegalStateException)
+        callbackTrackers.get('a').running == 0
+    }
+
+    void 'Streams closed on another thread give back what their own thread entered'() {
+        given:
+        factory.configs.a = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        storeItems(handler, 'a', 3)
+        ExecutorService owner = Executors.newSingleThreadExecutor()
+        Stream<Item> stream = owner.submit({ handler.streamQuery('a', Item, new ItemAbove(0), 2) } as Callable).get()
+        Thread.start { stream.close() }.join()
+        List<String> order = [].asSynchronized()
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch finish = new CountDownLatch(1)
+        Thread.start {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer ->
+                running.countDown()
+                finish.await()
+                order << 'running'
+            }
+        }
+        running.await()
+
+        when:
+        Thread exclusive = Thread.start {
+            callbackTrackers.runExclusively('a', 5, TimeUnit.SECONDS) { order << 'exclusive' }
+        }
+        sleep(50)
+        Future<?> late = owner.submit {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> order << 'late' }
+        }
+        sleep(50)
+        finish.countDown()
+        late.get(5, TimeUnit.SECONDS)
+        exclusive.join(5000)
+
+        then:
+        order == ['running', 'exclusive', 'late']
+
+        cleanup:
+        owner.shutdownNow()
+    }
+
+    void 'Queued asynchronous callbacks fail instead of reopening a closed container'() {
+        given:
+        factory.configs.a = [async_pool_size: 1, async_queue_size: 4]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        CountDownLatch running = new CountDownLatch(1)
+        CountDownLatch finish = new CountDownLatch(1)
+        CompletableFuture<Boolean> first = handler.withDb4oAsync('a') { String dataSourceName, ObjectContainer objectContainer ->
+            running.countDown()
+            finish.await()
+            true
+        }
+        CompletableFuture<Boolean> queued = handler.withDb4oAsync('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+        running.await()
+
+        when:
+        handler.closeDb4o('a')
+        finish.countDown()
+        first.get(5, TimeUnit.SECONDS)
+        queued.get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof IllegalStateException
+        factory.created == ['a']
+        !storage.contains('a')
+    }
+
+    void 'Transactions commit changes made through transparent persistence'() {
+        given:
+        factory.configs.a = [transparent_persistence: true]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        handler.withDb4oTransaction('a') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.store(new EmbeddedConfigurationSupportSpec.Account(balance: 10))
+        }
+
+        when:
+        handler.withDb4oTransaction('a') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(EmbeddedConfigurationSupportSpec.Account)[0].balance = 20
+        }
+
+        then:
+        handler.withDb4oTransaction('a') { String dataSourceName, ObjectContainer objectContainer ->
+            objectContainer.query(EmbeddedConfigurationSupportSpec.Account)[0].balance
+        } == 20
+    }
+
+    void 'Maintenance work keeps the container busy without counting as using it'() {
+        given:
+        factory.configs.a = [:]
+        DefaultObjectContainerHandler handler = createHandler(0)
+        handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer -> true }
+        long lastUsed = callbackTrackers.get('a').lastUsed
+        int running = -1
+
+        when:
+        callbackTrackers.runMaintenance('a') {
+            handler.withDb4o('a') { String dataSourceName, ObjectContainer objectContainer ->
+                running = callbackTrackers.get('a').running
+            }
+        }
+
+        then:
+        running == 2
+        callbackTrackers.get('a').running == 0
+        callbackTrackers.get('a').lastUsed == lastUsed
+    }
+
+    private static void storeItems(DefaultObjectContainerHandler handler, String dataSourceName, int count) {
+        handler.withDb4o(dataSourceName) { String name, ObjectContainer objectContainer ->
+            (1..count).each { objectContainer.store(new Item(value: it)) }
+            objectContainer.commit()
+        }
+    }
+
+    private DefaultObjectContainerHandler createHandler(int maxOpenContainers) {
+        Configuration configuration = Stub(Configuration) {
+            getAsInt('max_open_containers', 0) >> maxOpenContainers
+        }
+        new DefaultObjectContainerHandler(configuration, factory, storage, new InMemoryDb4oMetrics(), callbackTrackers)
+    }
+
+    private static void waitFor(Closure<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 5000
+        while (!condition() && System.currentTimeMillis() < deadline) {
+            sleep(20)
+        }
+    }
+
+    private static class TestObjectContainerFactory implements ObjectContainerFactory {
+        final Map<String, Map<String, Object>> configs = [:]
+        final List<String> created = [].asSynchronized()
+        final List<String> destroyed = [].asSynchronized()
+
+        @Override
+        Set<String> getDataSourceNames() {
+            configs.keySet()
+        }
+
+        @Override
+        Map<String, Object> getConfigurationFor(@Nonnull String dataSourceName) {
+            configs.get(dataSourceName, [:])
+        }
+
+        @Override
+        ObjectContainer create(String name) {
+            created << name
+            EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+            EmbeddedConfigurationSupport.applyTo(name, getConfigurationFor(name), configuration)
+            configuration.file().storage(new MemoryStorage())
+            Db4oEmbedded.openFile(configuration, name + '.yarv')
+        }
+
+        @Override
+        void destroy(String name, ObjectContainer instance) {
+            destroyed << name
+            instance.close()
+        }
+    }
+
+    private static class Item {
+        int value
+    }
+
+    private static class ItemAbove extends Predicate<Item> {
+        private final int threshold
+
+        ItemAbove(int threshold) {
+            this.threshold = threshold
+        }
+
+        @Override
+        boolean match(Item item) {
+            item.value > threshold
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o
+
+import com.db4o.Db4oEmbedded
+import com.db4o.ObjectContainer
+import com.db4o.activation.ActivationPurpose
+import com.db4o.activation.Activator
+import com.db4o.config.EmbeddedConfiguration
+import com.db4o.config.QueryEvaluationMode
+import com.db4o.io.CachingStorage
+import com.db4o.io.FileStorage
+import com.db4o.io.MemoryStorage
+import com.db4o.io.NonFlushingStorage
+import com.db4o.ta.Activatable
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class EmbeddedConfigurationSupportSpec extends Specification {
+    void 'Tuning keys are applied to the embedded configuration'() {
+        given:
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+        Map config = [
+            block_size                        : 8,
+            database_growth_size              : 1024 * 1024,
+            freespace                         : 'btree',
+            activation_depth                  : 3,
+            update_depth                      : 2,
+            weak_reference_collection_interval: 5000,
+            query_evaluation_mode             : 'lazy',
+            generate_uuids                    : true,
+            generate_commit_timestamps        : true,
+            lock_database_file                : false,
+            storage                           : 'memory'
+        ]
+
+        when:
+        EmbeddedConfigurationSupport.applyTo('default', config, configuration)
+
+        then:
+        configuration.common().activationDepth() == 3
+        configuration.common().queries().evaluationMode() == QueryEvaluationMode.LAZY
+        configuration.file().storage() instanceof MemoryStorage
+    }
+
+    void 'Invalid setting #config fails fast'() {
+        when:
+        EmbeddedConfigurationSupport.applyTo('default', config, Db4oEmbedded.newConfiguration())
+
+        then:
+        thrown(IllegalArgumentException)
+
+        where:
+        config << [
+            [block_size: 0],
+            [block_size: 128],
+            [database_growth_size: -1],
+            [freespace: 'index'],
+            [activation_depth: -1],
+            [update_depth: -1],
+            [weak_reference_collection_interval: -1],
+            [weak_references: false, weak_reference_collection_interval: 1000],
+            [query_evaluation_mode: 'eager'],
+            [indexes: 'com.acme.Person'],
+            [indexes: ['com.acme.Person': 42]],
+            [indexes: ['com.acme.Person': ['lastName', '']]],
+            [storage: 'mmap'],
+            [storage: 'caching', storage_page_count: 0],
+            [storage: 'caching', storage_page_size: -1],
+            [storage: 'mapped', storage_segment_size: 0],
+            [transparent_persistence: true, transparent_activation: false],
+            [transparent_persistence: true, transparent_persistence_rollback: 'discard'],
+            [transparent_persistence_rollback: 'none']
+        ]
+    }
+
+    void 'Storage #storage resolves to #type'() {
+        expect:
+        EmbeddedConfigurationSupport.createStorage('default', [storage: storage], null)?.getClass() == type
+
+        where:
+        storage        | type
+        'file'         | FileStorage
+        'memory'       | MemoryStorage
+        'caching'      | CachingStorage
+        'non_flushing' | NonFlushingStorage
+        'mapped'       | MappedFileStorage
+        'custom'       | null
+    }
+
+    void 'Indexes may be declared using flat or nested notation'() {
+        expect:
+        EmbeddedConfigurationSupport.resolveIndexes('default', [indexes: indexes]) == [
+            'com.acme.Person': ['lastName', 'email'] as Set,
+            'com.acme.Order' : ['number'] as Set
+        ]
+
+        where:
+        indexes << [
+            ['com.acme.Person': ['lastName', 'email'], 'com.acme.Order': ['number']],
+            [com: [acme: [Person: ['lastName', 'email'], Order: 'number']]]
+        ]
+    }
+
+    void 'Transparent persistence stores modified objects on commit and deactivates them on rollback'() {
+        given:
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+        EmbeddedConfigurationSupport.applyTo('default', [storage: 'memory', transparent_persistence: true], configuration)
+        ObjectContainer objectContainer = Db4oEmbedded.openFile(configuration, 'transparent.yarv')
+        objectContainer.store(new Account(balance: 10))
+        objectContainer.commit()
+        ObjectContainer session = objectContainer.ext().openSession()
+        Account account = session.query(Account)[0]
+
+        when:
+        account.balance = 20
+        session.commit()
+
+        then:
+        balanceIn(objectContainer) == 20
+
+        when:
+        account.balance = 30
+        session.rollback()
+
+        then:
+        account.balance == 20
+        balanceIn(objectContainer) == 20
+
+        cleanup:
+        session?.close()
+        objectContainer?.close()
+    }
+
+    private static int balanceIn(ObjectContainer objectContainer) {
+        ObjectContainer session = objectContainer.ext().openSession()
+        try {
+            session.query(Account)[0].balance
+        } finally {
+            session.close()
+        }
+    }
+
+    static class Account implements Activatable {
+        private transient Activator activator
+        private int balance
+
+        @Override
+        void bind(Activator activator) {
+            this.activator = activator
+        }
+
+        @Override
+        void activate(ActivationPurpose purpose) {
+            activator?.activate(purpose)
+        }
+
+        int getBalance() {
+            activate(ActivationPurpose.READ)
+            balance
+        }
+
+        void setBalance(int balance) {
+            activate(ActivationPurpose.WRITE)
+            this.balance = balance
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o
+
+import com.db4o.Db4oEmbedded
+import com.db4o.ObjectContainer
+import com.db4o.config.EmbeddedConfiguration
+import com.db4o.io.Bin
+import com.db4o.io.BinConfiguration
+import com.db4o.io.FileStorage
+import com.db4o.io.Storage
+import griffon.plugins.db4o.Person
+import spock.lang.Specification
+import spock.lang.Unroll
+
+@Unroll
+class MappedFileStorageSpec extends Specification {
+    private static final int SEGMENT_SIZE = 4096
+
+    private File dbfile
+
+    void setup() {
+        dbfile = File.createTempFile('mapped-', '.yarv')
+        dbfile.delete()
+    }
+
+    void cleanup() {
+        dbfile.delete()
+    }
+
+    void 'Bytes written across segment boundaries can be read back'() {
+        given:
+        byte[] data = (0..<3 * SEGMENT_SIZE + 100).collect { (byte) (it % 127) } as byte[]
+        Bin bin = new MappedFileStorage(SEGMENT_SIZE).open(new BinConfiguration(dbfile.absolutePath, false, 0L, false))
+
+        when:
+        bin.write(0L, data, SEGMENT_SIZE)
+        bin.write(SEGMENT_SIZE, data[SEGMENT_SIZE..-1] as byte[], data.length - SEGMENT_SIZE)
+        bin.write(10L, data[10..<(2 * SEGMENT_SIZE)] as byte[], 2 * SEGMENT_SIZE - 10)
+        bin.sync()
+        byte[] copy = new byte[data.length + 10]
+        int read = bin.read(0L, copy, copy.length)
+
+        then:
+        bin.length() == data.length
+        read == data.length
+        copy[0..<data.length] == data as List
+        bin.read(data.length, new byte[1], 1) == -1
+
+        cleanup:
+        bin.close()
+    }
+
+    void 'Objects stored with #writer can be read with #reader'() {
+        given:
+        List<Person> people = (0..<500).collect { new Person(id: it.toString(), name: "name$it", lastname: "lastname$it") }
+
+        when:
+        withObjectContainer(writer) { ObjectContainer objectContainer ->
+            people.each { objectContainer.store(it) }
+            objectContainer.commit()
+        }
+        List<Person> stored = withObjectContainer(reader) { ObjectContainer objectContainer ->
+            objectContainer.query(Person).collect { it }
+        }
+
+        then:
+        dbfile.length() > SEGMENT_SIZE
+        stored as Set == people as Set
+
+        where:
+        writer                                | reader
+        new MappedFileStorage(SEGMENT_SIZE)   | new FileStorage()
+        new FileStorage()                     | new MappedFileStorage(SEGMENT_SIZE)
+        new MappedFileStorage(SEGMENT_SIZE)   | new MappedFileStorage(SEGMENT_SIZE)
+    }
+
+    private <T> T withObjectContainer(Storage storage, Closure<T> callback) {
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+        configuration.file().storage(storage)
+        ObjectContainer objectContainer = Db4oEmbedded.openFile(configuration, dbfile.absolutePath)
+        try {
+            return callback(objectContainer)
+        } finally {
+            objectContainer.close()
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o
+
+import com.db4o.Db4oEmbedded
+import com.db4o.ObjectContainer
+import com.db4o.config.EmbeddedConfiguration
+import com.db4o.io.MemoryStorage
+import griffon.plugins.db4o.ObjectContainerCallback
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.function.Consumer
+
+class ObjectContainerBatchSpec extends Specification {
+    private ObjectContainer objectContainer
+
+    void setup() {
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+        configuration.file().storage(new MemoryStorage())
+        objectContainer = Db4oEmbedded.openFile(configuration, 'batch.yarv')
+    }
+
+    void cleanup() {
+        objectContainer.close()
+    }
+
+    void 'The writer keeps going after a group fails with an error'() {
+        given:
+        int calls = 0
+        Consumer<ObjectContainerCallback<Void>> executor = { ObjectContainerCallback<Void> callback ->
+            if (calls++ == 0) {
+                throw new AssertionError('boom')
+            }
+            callback.handle('batch', objectContainer)
+        } as Consumer
+        ObjectContainerBatch batch = new ObjectContainerBatch('batch', [:], executor)
+
+        when:
+        CompletableFuture<Void> failed = batch.submit(new Note(text: 'first'), false)
+        failed.get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown()
+        e.cause instanceof AssertionError
+
+        when:
+        batch.submit(new Note(text: 'second'), false).get(5, TimeUnit.SECONDS)
+
+        then:
+        objectContainer.query(Note)*.text == ['second']
+
+        cleanup:
+        batch.close()
+    }
+
+    void 'Operations submitted after close are rejected'() {
+        given:
+        ObjectContainerBatch batch = new ObjectContainerBatch('batch', [:], { ObjectContainerCallback<Void> callback ->
+            callback.handle('batch', objectContainer)
+        } as Consumer)
+        batch.close()
+
+        when:
+        batch.submit(new Note(text: 'late'), false)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    private static class Note {
+        String text
+    }
+}
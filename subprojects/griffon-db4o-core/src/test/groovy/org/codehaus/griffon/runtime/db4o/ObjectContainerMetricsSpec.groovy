@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.runtime.db4o
+
+import com.db4o.Db4oEmbedded
+import com.db4o.ObjectContainer
+import com.db4o.config.EmbeddedConfiguration
+import com.db4o.io.MemoryStorage
+import griffon.plugins.db4o.Person
+import spock.lang.Specification
+
+class ObjectContainerMetricsSpec extends Specification {
+    private ObjectContainerMetrics metrics = new ObjectContainerMetrics('default')
+    private ObjectContainer objectContainer
+
+    void setup() {
+        EmbeddedConfiguration configuration = Db4oEmbedded.newConfiguration()
+        configuration.file().storage(new MemoryStorage())
+        configuration.common().diagnostic().addListener(metrics)
+        objectContainer = Db4oEmbedded.openFile(configuration, 'metrics.yarv')
+        metrics.attach(objectContainer)
+    }
+
+    void cleanup() {
+        metrics.detach()
+        objectContainer.close()
+    }
+
+    void 'Queries, stores, activations and commits are counted'() {
+        when:
+        (1..10).each { objectContainer.store(new Person(id: it.toString(), name: "name$it", lastname: "lastname$it")) }
+        objectContainer.commit()
+        objectContainer.ext().purge()
+        3.times {
+            def query = objectContainer.query()
+            query.constrain(Person)
+            query.descend('lastname').constrain('lastname1')
+            query.execute().each { it.name }
+        }
+
+        then:
+        metrics.storedCount == 10
+        metrics.storedPerSecond > 0
+        metrics.activatedCount > 0
+        metrics.commitCount >= 1
+        metrics.commitTimeMax >= metrics.commitTimeAverage
+        metrics.queryCount == 3
+        metrics.queryLatencyHistogram.values().sum() == 3
+        metrics.fileSize > 0
+        metrics.referenceCacheSize > 0
+        metrics.diagnostics.containsKey('LoadedFromClassIndex')
+    }
+
+    void 'Reference cache size is sampled rather than walked on every read'() {
+        given:
+        objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+        int sampled = metrics.referenceCacheSize
+
+        when:
+        (2..10).each { objectContainer.store(new Person(id: it.toString(), name: "name$it", lastname: "lastname$it")) }
+
+        then:
+        sampled > 0
+        metrics.referenceCacheSize == sampled
+    }
+
+    void 'Detached metrics no longer record events'() {
+        given:
+        metrics.detach()
+
+        when:
+        objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+        objectContainer.commit()
+
+        then:
+        metrics.storedCount == 0
+        metrics.commitCount == 0
+        metrics.fileSize == 0
+    }
+
+    void 'Reset clears all counters'() {
+        given:
+        objectContainer.store(new Person(id: '1', name: 'Danno', lastname: 'Ferrin'))
+        objectContainer.commit()
+
+        when:
+        metrics.reset()
+
+        then:
+        metrics.storedCount == 0
+        metrics.commitCount == 0
+        metrics.queryLatencyHistogram.values().every { it == 0 }
+    }
+}
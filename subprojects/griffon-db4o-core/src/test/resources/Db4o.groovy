@@ -41,5 +41,61 @@ dataSources {
     }
     people {
         name = '@application.name@-people.yarv'
+        indexes {
+            griffon.plugins.db4o.Person = ['lastname']
+        }
+    }
+    sessions {
+        name = '@application.name@-sessions.yarv'
+        delete = true
+        session_mode = true
+        session_pool_size = 4
+        bulk_chunk_size = 50
+    }
+    memory {
+        name = '@application.name@-memory.yarv'
+        storage = 'memory'
+        batch_window = 20
+        instrumented = true
+        query_cache_size = 2
+    }
+    async {
+        name = '@application.name@-async.yarv'
+        storage = 'memory'
+        async_pool_size = 1
+        async_queue_size = 1
+        close_timeout = 200
+    }
+    startup {
+        name = '@application.name@-startup.yarv'
+        storage = 'memory'
+        connect_on_startup = 'eager'
+    }
+    server {
+        name = '@application.name@-server.yarv'
+        type = 'server'
+        delete = true
+        port = Integer.getInteger('griffon.db4o.test.port', 0)
+        users {
+            griffon = 'secret'
+        }
+    }
+    ledger {
+        name = '@application.name@-ledger.yarv'
+        delete = true
+        backup_directory = 'build/backups'
+        backup_retention = 2
+    }
+    reports {
+        name = '@application.name@-reports.yarv'
+        replica_of = 'ledger'
+        replica_refresh_interval = 100
+    }
+    client {
+        type = 'client'
+        port = Integer.getInteger('griffon.db4o.test.port', 0)
+        user = 'griffon'
+        password = 'secret'
+        client_pool_size = 2
     }
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.transform;
+
+import java.lang.annotation.*;
+
+/**
+ * <p>Annotates a persistent class so that it implements {@code com.db4o.ta.Activatable}.</p>
+ * <p>The class receives a transient {@code Activator} field plus the {@code bind()} and {@code activate()}
+ * methods required by db4o. Generated property getters call {@code activate(ActivationPurpose.READ)} and
+ * generated setters call {@code activate(ActivationPurpose.WRITE)} before touching the backing field,
+ * which lets dataSources configured with {@code transparent_activation} or {@code transparent_persistence}
+ * load and store only the objects that are actually used.</p>
+ * <p>Accessors written by hand and direct field access inside the class are left untouched; they must
+ * call {@code activate()} themselves.</p>
+ *
+ * @author Andres Almiray
+ * @see com.db4o.ta.Activatable
+ */
+@Documented
+@Retention(RetentionPolicy.SOURCE)
+@Target({ElementType.TYPE})
+public @interface Db4oActivatable {
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.db4o;
+
+/**
+ * @author Andres Almiray
+ */
+public interface Db4oActivatableConstants {
+    String ACTIVATOR_PROPERTY = "db4oActivator";
+    String ACTIVATOR_FIELD_NAME = "this$" + ACTIVATOR_PROPERTY;
+
+    String METHOD_BIND = "bind";
+    String METHOD_ACTIVATE = "activate";
+    String ACTIVATOR = "activator";
+    String PURPOSE = "purpose";
+    String PURPOSE_READ = "READ";
+    String PURPOSE_WRITE = "WRITE";
+}
@@ -34,13 +34,28 @@ public interface Db4oAwareConstants extends BaseConstants {
     String OBJECT_CONTAINER_TYPE = "com.db4o.ObjectContainer";
     String OBJECT_CONTAINER_HANDLER_TYPE = "griffon.plugins.db4o.ObjectContainerHandler";
     String OBJECT_CONTAINER_CALLBACK_TYPE = "griffon.plugins.db4o.ObjectContainerCallback";
+    String ACTIVATION_PROFILE_TYPE = "griffon.plugins.db4o.ActivationProfile";
     String OBJECT_CONTAINER_HANDLER_PROPERTY = "objectContainerHandler";
     String OBJECT_CONTAINER_HANDLER_FIELD_NAME = "this$" + OBJECT_CONTAINER_HANDLER_PROPERTY;
 
     String METHOD_WITH_OBJECT_CONTAINER = "withDb4o";
+    String METHOD_WITH_OBJECT_CONTAINER_ACTIVATION = "withDb4oActivation";
+    String METHOD_WITH_OBJECT_CONTAINER_READ_ONLY = "withDb4oReadOnly";
+    String METHOD_WITH_OBJECT_CONTAINER_TRANSACTION = "withDb4oTransaction";
+    String METHOD_WITH_OBJECT_CONTAINER_ASYNC = "withDb4oAsync";
+    String METHOD_STREAM_QUERY = "streamQuery";
+    String METHOD_CACHED_QUERY = "cachedQuery";
+    String METHOD_QUERY_IDS = "queryIDs";
+    String METHOD_GET_BY_IDS = "getByIDs";
+    String METHOD_DELETE_BY_IDS = "deleteByIDs";
     String METHOD_CLOSE_OBJECT_CONTAINER = "closeDb4o";
     String OBJECT_CONTAINER_NAME = "dataSourceName";
     String CALLBACK = "callback";
+    String JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE = "java.util.concurrent.CompletableFuture";
+    String JAVA_UTIL_STREAM_STREAM = "java.util.stream.Stream";
+    String PREDICATE_TYPE = "com.db4o.query.Predicate";
+    String LONG_ID_SET_TYPE = "griffon.plugins.db4o.ids.LongIdSet";
+    String LONG_ID_MAP_TYPE = "griffon.plugins.db4o.ids.LongIdMap";
 
     MethodDescriptor[] METHODS = new MethodDescriptor[]{
         method(
@@ -68,6 +83,172 @@ public interface Db4oAwareConstants extends BaseConstants {
             args(
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
                 annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_ACTIVATION,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), ACTIVATION_PROFILE_TYPE),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_ACTIVATION,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), ACTIVATION_PROFILE_TYPE),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_READ_ONLY,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_READ_ONLY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_TRANSACTION,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            types(type(JAVAX_ANNOTATION_NONNULL)),
+            type(R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_TRANSACTION,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_ASYNC,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_CONCURRENT_COMPLETABLE_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_OBJECT_CONTAINER_ASYNC,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), OBJECT_CONTAINER_CALLBACK_TYPE, R))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_STREAM_STREAM, T),
+            typeParams(T),
+            METHOD_STREAM_QUERY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T),
+                type(INT))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_STREAM_STREAM, T),
+            typeParams(T),
+            METHOD_STREAM_QUERY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T),
+                type(INT))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_LIST, T),
+            typeParams(T),
+            METHOD_CACHED_QUERY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(JAVA_UTIL_LIST, T),
+            typeParams(T),
+            METHOD_CACHED_QUERY,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(LONG_ID_SET_TYPE),
+            typeParams(T),
+            METHOD_QUERY_IDS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(LONG_ID_SET_TYPE),
+            typeParams(T),
+            METHOD_QUERY_IDS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), PREDICATE_TYPE, T))
+        ),
+
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(LONG_ID_MAP_TYPE, T),
+            typeParams(T),
+            METHOD_GET_BY_IDS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), LONG_ID_SET_TYPE))
+        ),
+        annotatedMethod(
+            annotations(JAVAX_ANNOTATION_NONNULL),
+            type(LONG_ID_MAP_TYPE, T),
+            typeParams(T),
+            METHOD_GET_BY_IDS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_CLASS, T),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), LONG_ID_SET_TYPE))
+        ),
+
+        method(
+            type(INT),
+            METHOD_DELETE_BY_IDS,
+            args(annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), LONG_ID_SET_TYPE))
+        ),
+        method(
+            type(INT),
+            METHOD_DELETE_BY_IDS,
+            args(
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), JAVA_LANG_STRING),
+                annotatedType(annotations(JAVAX_ANNOTATION_NONNULL), LONG_ID_SET_TYPE))
         )
     };
 }
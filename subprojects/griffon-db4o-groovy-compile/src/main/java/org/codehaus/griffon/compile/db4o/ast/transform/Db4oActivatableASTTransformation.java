@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.db4o.ast.transform;
+
+import com.db4o.activation.ActivationPurpose;
+import com.db4o.activation.Activator;
+import com.db4o.ta.Activatable;
+import griffon.transform.Db4oActivatable;
+import org.codehaus.griffon.compile.core.AnnotationHandler;
+import org.codehaus.griffon.compile.core.AnnotationHandlerFor;
+import org.codehaus.griffon.compile.core.ast.transform.AbstractASTTransformation;
+import org.codehaus.griffon.compile.db4o.Db4oActivatableConstants;
+import org.codehaus.groovy.ast.ASTNode;
+import org.codehaus.groovy.ast.AnnotatedNode;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.PropertyNode;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.transform.GroovyASTTransformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+
+import static java.lang.reflect.Modifier.PRIVATE;
+import static java.lang.reflect.Modifier.PUBLIC;
+import static java.lang.reflect.Modifier.TRANSIENT;
+import static java.lang.reflect.Modifier.isFinal;
+import static java.lang.reflect.Modifier.isStatic;
+import static org.codehaus.griffon.compile.core.ast.GriffonASTUtils.injectInterface;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.andX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.args;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.assignS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.block;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.callThisX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.callX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.classX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.constX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.ctorX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.fieldX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.hasDeclaredMethod;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.ifS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.neX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.notNullX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.param;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.params;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.propX;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.returnS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.stmt;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.throwS;
+import static org.codehaus.groovy.ast.tools.GeneralUtils.varX;
+import static org.codehaus.groovy.runtime.MetaClassHelper.capitalize;
+
+/**
+ * Handles generation of code for the {@code @Db4oActivatable} annotation.
+ *
+ * @author Andres Almiray
+ */
+@AnnotationHandlerFor(Db4oActivatable.class)
+@GroovyASTTransformation(phase = CompilePhase.CANONICALIZATION)
+public class Db4oActivatableASTTransformation extends AbstractASTTransformation implements Db4oActivatableConstants, AnnotationHandler {
+    private static final Logger LOG = LoggerFactory.getLogger(Db4oActivatableASTTransformation.class);
+    private static final ClassNode ACTIVATABLE_CNODE = makeClassSafe(Activatable.class);
+    private static final ClassNode ACTIVATOR_CNODE = makeClassSafe(Activator.class);
+    private static final ClassNode ACTIVATION_PURPOSE_CNODE = makeClassSafe(ActivationPurpose.class);
+    private static final ClassNode ILLEGAL_STATE_EXCEPTION_CNODE = makeClassSafe(IllegalStateException.class);
+    private static final ClassNode DB4O_ACTIVATABLE_CNODE = makeClassSafe(Db4oActivatable.class);
+
+    /**
+     * Convenience method to see if an annotated node is {@code @Db4oActivatable}.
+     *
+     * @param node the node to check
+     * @return true if the node is annotated with {@code @Db4oActivatable}
+     */
+    public static boolean hasDb4oActivatableAnnotation(AnnotatedNode node) {
+        for (AnnotationNode annotation : node.getAnnotations()) {
+            if (DB4O_ACTIVATABLE_CNODE.equals(annotation.getClassNode())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handles the bulk of the processing, mostly delegating to other methods.
+     *
+     * @param nodes  the ast nodes
+     * @param source the source unit for the nodes
+     */
+    public void visit(ASTNode[] nodes, SourceUnit source) {
+        checkNodesForAnnotationAndType(nodes[0], nodes[1]);
+        apply((ClassNode) nodes[1]);
+    }
+
+    /**
+     * Makes the class {@code Activatable} and instruments its generated property accessors. Classes that
+     * already implement {@code Activatable}, directly or through a superclass, keep their own
+     * {@code bind()} and {@code activate()} methods; only their accessors are instrumented.
+     *
+     * @param declaringClass the class to which we add the support field and methods
+     */
+    public static void apply(@Nonnull ClassNode declaringClass) {
+        if (declaringClass.implementsInterface(ACTIVATABLE_CNODE)) {
+            LOG.debug("{} already implements {}", declaringClass.getName(), ACTIVATABLE_CNODE.getName());
+        } else {
+            LOG.debug("Injecting {} into {}", ACTIVATABLE_CNODE.getName(), declaringClass.getName());
+            injectInterface(declaringClass, ACTIVATABLE_CNODE);
+            FieldNode activator = declaringClass.addField(ACTIVATOR_FIELD_NAME, PRIVATE | TRANSIENT, ACTIVATOR_CNODE, null);
+            addBindMethod(declaringClass, activator);
+            addActivateMethod(declaringClass, activator);
+        }
+
+        for (PropertyNode property : declaringClass.getProperties()) {
+            if (!isStatic(property.getModifiers())) {
+                addAccessors(declaringClass, property);
+            }
+        }
+    }
+
+    private static void addBindMethod(@Nonnull ClassNode declaringClass, @Nonnull FieldNode field) {
+        // an object may be rebound to the same activator or unbound, but never bound to two activators
+        Parameter activator = param(ACTIVATOR_CNODE, ACTIVATOR);
+        declaringClass.addMethod(METHOD_BIND, PUBLIC, ClassHelper.VOID_TYPE, params(activator), ClassNode.EMPTY_ARRAY, block(
+            ifS(andX(andX(notNullX(varX(activator)), notNullX(fieldX(field))), neX(fieldX(field), varX(activator))),
+                throwS(ctorX(ILLEGAL_STATE_EXCEPTION_CNODE, args(constX("Object can only be bound to one activator"))))),
+            assignS(fieldX(field), varX(activator))
+        ));
+    }
+
+    private static void addActivateMethod(@Nonnull ClassNode declaringClass, @Nonnull FieldNode field) {
+        Parameter purpose = param(ACTIVATION_PURPOSE_CNODE, PURPOSE);
+        declaringClass.addMethod(METHOD_ACTIVATE, PUBLIC, ClassHelper.VOID_TYPE, params(purpose), ClassNode.EMPTY_ARRAY, block(
+            ifS(notNullX(fieldX(field)), stmt(callX(fieldX(field), METHOD_ACTIVATE, args(varX(purpose)))))
+        ));
+    }
+
+    private static void addAccessors(@Nonnull ClassNode declaringClass, @Nonnull PropertyNode property) {
+        String suffix = capitalize(property.getName());
+
+        addGetter(declaringClass, property, "get" + suffix);
+        if (ClassHelper.boolean_TYPE.equals(property.getType())) {
+            addGetter(declaringClass, property, "is" + suffix);
+        }
+
+        if (!isFinal(property.getModifiers()) && !hasDeclaredMethod(declaringClass, "set" + suffix, 1)) {
+            Parameter value = param(property.getType(), "value");
+            declaringClass.addMethod("set" + suffix, PUBLIC, ClassHelper.VOID_TYPE, params(value), ClassNode.EMPTY_ARRAY, block(
+                activate(PURPOSE_WRITE),
+                assignS(fieldX(property.getField()), varX(value))
+            ));
+        }
+    }
+
+    private static void addGetter(@Nonnull ClassNode declaringClass, @Nonnull PropertyNode property, @Nonnull String name) {
+        if (!hasDeclaredMethod(declaringClass, name, 0)) {
+            declaringClass.addMethod(name, PUBLIC, property.getType(), Parameter.EMPTY_ARRAY, ClassNode.EMPTY_ARRAY, block(
+                activate(PURPOSE_READ),
+                returnS(fieldX(property.getField()))
+            ));
+        }
+    }
+
+    @Nonnull
+    private static Statement activate(@Nonnull String purpose) {
+        return stmt(callThisX(METHOD_ACTIVATE, args(propX(classX(ACTIVATION_PURPOSE_CNODE), purpose))));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.codehaus.griffon.compile.db4o.ast.transform
+
+import com.db4o.activation.ActivationPurpose
+import com.db4o.activation.Activator
+import com.db4o.ta.Activatable
+import spock.lang.Specification
+
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+
+/**
+ * @author Andres Almiray
+ */
+class Db4oActivatableASTTransformationSpec extends Specification {
+    def 'Db4oActivatableASTTransformation is applied to a bean via @Db4oActivatable'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+
+        when:
+        def bean = shell.evaluate('''import griffon.transform.Db4oActivatable
+        @Db4oActivatable
+        class Bean {
+            String name
+            boolean active
+        }
+        new Bean()
+        ''')
+        Field activator = bean.class.declaredFields.find { it.type == Activator }
+
+        then:
+        bean instanceof Activatable
+        activator != null
+        Modifier.isTransient(activator.modifiers)
+    }
+
+    def 'Generated accessors activate the bean before reading or writing'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+        def bean = shell.evaluate('''import griffon.transform.Db4oActivatable
+        @Db4oActivatable
+        class Bean {
+            String name
+            boolean active
+        }
+        new Bean()
+        ''')
+        List<ActivationPurpose> purposes = []
+        bean.bind({ ActivationPurpose purpose -> purposes << purpose } as Activator)
+
+        when:
+        bean.name = 'griffon'
+        bean.name
+        bean.active
+
+        then:
+        purposes == [ActivationPurpose.WRITE, ActivationPurpose.READ, ActivationPurpose.READ]
+    }
+
+    def 'A bean cannot be bound to two activators'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+        def bean = shell.evaluate('''import griffon.transform.Db4oActivatable
+        @Db4oActivatable
+        class Bean { }
+        new Bean()
+        ''')
+        Activator first = { ActivationPurpose purpose -> } as Activator
+        Activator second = { ActivationPurpose purpose -> } as Activator
+
+        when:
+        bean.bind(first)
+        bean.bind(first)
+        bean.bind(null)
+        bean.bind(second)
+
+        then:
+        notThrown(IllegalStateException)
+
+        when:
+        bean.bind(first)
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def 'Db4oActivatableASTTransformation keeps bind() and activate() of an Activatable class'() {
+        given:
+        GroovyShell shell = new GroovyShell()
+
+        when:
+        def bean = shell.evaluate('''
+        import com.db4o.activation.ActivationPurpose
+        import com.db4o.activation.Activator
+        import com.db4o.ta.Activatable
+        import griffon.transform.Db4oActivatable
+
+        @Db4oActivatable
+        class ActivatableBean implements Activatable {
+            List<ActivationPurpose> purposes = []
+            String name
+
+            void bind(Activator activator) { }
+
+            void activate(ActivationPurpose purpose) { purposes << purpose }
+        }
+        new ActivatableBean()
+        ''')
+        bean.name = 'griffon'
+
+        then:
+        !bean.class.declaredFields.find { it.type == Activator }
+        bean.@purposes == [ActivationPurpose.WRITE]
+    }
+}
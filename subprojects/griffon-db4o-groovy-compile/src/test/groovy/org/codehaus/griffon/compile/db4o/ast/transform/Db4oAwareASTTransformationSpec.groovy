@@ -53,12 +53,18 @@ class Db4oAwareASTTransformationSpec extends Specification {
 
         when:
         def bean = shell.evaluate('''
+        import com.db4o.query.Predicate
+        import griffon.plugins.db4o.ActivationProfile
         import griffon.plugins.db4o.ObjectContainerCallback
         import griffon.plugins.db4o.ObjectContainerCallback
         import griffon.plugins.db4o.ObjectContainerHandler
+        import griffon.plugins.db4o.ids.LongIdMap
+        import griffon.plugins.db4o.ids.LongIdSet
         import griffon.transform.Db4oAware
 
         import javax.annotation.Nonnull
+        import java.util.concurrent.CompletableFuture
+        import java.util.stream.Stream
         @Db4oAware
         class ObjectContainerHandlerBean implements ObjectContainerHandler {
             @Override
@@ -70,6 +76,78 @@ class Db4oAwareASTTransformationSpec extends Specification {
                  return null
             }
             @Override
+            public <R> R withDb4oActivation(@Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> R withDb4oActivation(@Nonnull String dataSourceName, @Nonnull ActivationProfile activationProfile, @Nonnull ObjectContainerCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <R> R withDb4oReadOnly(@Nonnull ObjectContainerCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> R withDb4oReadOnly(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+                 return null
+            }
+            @Override
+            public <R> R withDb4oTransaction(@Nonnull ObjectContainerCallback<R> callback)  {
+                return null
+            }
+            @Override
+            public <R> R withDb4oTransaction(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+                return null
+            }
+            @Override
+            public <R> CompletableFuture<R> withDb4oAsync(@Nonnull ObjectContainerCallback<R> callback) {
+                return null
+            }
+            @Override
+            public <R> CompletableFuture<R> withDb4oAsync(@Nonnull String dataSourceName, @Nonnull ObjectContainerCallback<R> callback) {
+                return null
+            }
+            @Override
+            public <T> Stream<T> streamQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize) {
+                return null
+            }
+            @Override
+            public <T> Stream<T> streamQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate, int pageSize) {
+                return null
+            }
+            @Override
+            public <T> List<T> cachedQuery(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+                return null
+            }
+            @Override
+            public <T> List<T> cachedQuery(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+                return null
+            }
+            @Override
+            public <T> LongIdSet queryIDs(@Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+                return null
+            }
+            @Override
+            public <T> LongIdSet queryIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull Predicate<T> predicate) {
+                return null
+            }
+            @Override
+            public <T> LongIdMap<T> getByIDs(@Nonnull Class<T> type, @Nonnull LongIdSet ids) {
+                return null
+            }
+            @Override
+            public <T> LongIdMap<T> getByIDs(@Nonnull String dataSourceName, @Nonnull Class<T> type, @Nonnull LongIdSet ids) {
+                return null
+            }
+            @Override
+            public int deleteByIDs(@Nonnull LongIdSet ids) {
+                return 0
+            }
+            @Override
+            public int deleteByIDs(@Nonnull String dataSourceName, @Nonnull LongIdSet ids) {
+                return 0
+            }
+            @Override
             void closeDb4o(){}
             @Override
             void closeDb4o(@Nonnull String dataSourceName){}